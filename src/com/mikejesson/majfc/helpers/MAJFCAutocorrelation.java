@@ -0,0 +1,233 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * Autocorrelation functions of primitive series, calculated with the FFT (the Wiener-Khinchin theorem) in O(n log n) whatever the
+ * number of lags, and integral time scales estimated from them.
+ * @author mikefedora
+ *
+ */
+public class MAJFCAutocorrelation {
+	private static int NUMBER_OF_INTEGRAL_TIME_SCALE_METHODS = 0;
+	/**
+	 * Integrate the autocorrelation function up to its first zero crossing
+	 */
+	public static final MAJFCIntegralTimeScaleMethod INTEGRAL_TIME_SCALE_FIRST_ZERO_CROSSING = new MAJFCIntegralTimeScaleMethod(NUMBER_OF_INTEGRAL_TIME_SCALE_METHODS++);
+	/**
+	 * The lag at which the autocorrelation function first falls to 1/e (exact for an exponential autocorrelation)
+	 */
+	public static final MAJFCIntegralTimeScaleMethod INTEGRAL_TIME_SCALE_E_FOLDING = new MAJFCIntegralTimeScaleMethod(NUMBER_OF_INTEGRAL_TIME_SCALE_METHODS++);
+	/**
+	 * Integrate the autocorrelation function up to its first local minimum
+	 */
+	public static final MAJFCIntegralTimeScaleMethod INTEGRAL_TIME_SCALE_FIRST_MINIMUM = new MAJFCIntegralTimeScaleMethod(NUMBER_OF_INTEGRAL_TIME_SCALE_METHODS++);
+	
+	/**
+	 * Calculates the autocorrelation function (autocorrelation coefficient against lag) of a series
+	 * @param data The series
+	 * @param maxLag The largest lag (in samples) to calculate the autocorrelation for
+	 * @return The autocorrelation coefficients for lags 0 to maxLag (so element 0 is 1)
+	 */
+	public static double[] autocorrelation(double[] data, int maxLag) {
+		return autocorrelation(data, 0, data.length, maxLag);
+	}
+	
+	/**
+	 * Calculates the autocorrelation function (autocorrelation coefficient against lag) of a range of a series. The fluctuations about the
+	 * mean are zero-padded to at least (length + maxLag) values, so the FFT's circular correlation does not wrap around, and the biased
+	 * estimator (each lagged product sum divided by the same number of values) is used, which is the usual choice for estimating integral
+	 * scales. Invalid (NaN) values are given zero fluctuation.
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param maxLag The largest lag (in samples) to calculate the autocorrelation for. Lags of length or more are not calculated.
+	 * @return The autocorrelation coefficients for lags 0 to maxLag (so element 0 is 1)
+	 */
+	public static double[] autocorrelation(double[] data, int offset, int length, int maxLag) {
+		maxLag = Math.min(maxLag, length - 1);
+		
+		int transformLength = MAJFCMaths.powerOfTwoAtLeast(length + maxLag);
+		double[] real = new double[transformLength];
+		double[] imaginary = new double[transformLength];
+		double mean = MAJFCMaths.mean(data, offset, length);
+		
+		for (int i = 0; i < length; ++i) {
+			double fluctuation = data[offset + i] - mean;
+			real[i] = fluctuation == fluctuation ? fluctuation : 0;
+		}
+		
+		// The autocorrelation is the inverse transform of the power spectrum
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, false);
+		
+		for (int k = 0; k < transformLength; ++k) {
+			real[k] = real[k] * real[k] + imaginary[k] * imaginary[k];
+			imaginary[k] = 0;
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, true);
+		
+		double[] autocorrelation = new double[maxLag + 1];
+		double zeroLagValue = real[0];
+		
+		for (int lag = 0; lag <= maxLag; ++lag) {
+			autocorrelation[lag] = real[lag]/zeroLagValue;
+		}
+		
+		return autocorrelation;
+	}
+	
+	/**
+	 * Calculates the autocorrelation function of a range of a series with gaps. Invalid samples are given zero fluctuation, and each lagged
+	 * product sum is scaled by the number of valid pairs at that lag (found from the autocorrelation of the mask), so the gaps do not bias
+	 * the function towards zero. Without gaps the result is the same as that of autocorrelation(data, offset, length, maxLag).
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param maxLag The largest lag (in samples) to calculate the autocorrelation for. Lags of length or more are not calculated.
+	 * @param mask The validity of each element of data
+	 * @return The autocorrelation coefficients for lags 0 to maxLag (so element 0 is 1), NaN at lags with no valid pairs
+	 */
+	public static double[] autocorrelation(double[] data, int offset, int length, int maxLag, MAJFCValidityMask mask) {
+		maxLag = Math.min(maxLag, length - 1);
+		
+		int transformLength = MAJFCMaths.powerOfTwoAtLeast(length + maxLag);
+		double[] real = new double[transformLength];
+		double[] imaginary = new double[transformLength];
+		double mean = MAJFCMaths.mean(data, offset, length, mask);
+		int end = offset + length;
+		
+		// The fluctuations go in the real part and the mask indicator in the imaginary part, so one transform does both
+		for (int runStart = mask.nextValid(offset, end); runStart < end; ) {
+			int runEnd = mask.nextInvalid(runStart, end);
+			
+			for (int i = runStart; i < runEnd; ++i) {
+				double fluctuation = data[i] - mean;
+				
+				if (fluctuation == fluctuation) {
+					real[i - offset] = fluctuation;
+					imaginary[i - offset] = 1;
+				}
+			}
+			
+			runStart = mask.nextValid(runEnd, end);
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, false);
+		
+		// Separate the two (real signals') spectra, X[k] = (Z[k] + conj(Z[N-k]))/2 and M[k] = (Z[k] - conj(Z[N-k]))/2i, and form their
+		// power spectra, with |X|^2 in the real part and |M|^2 in the imaginary part
+		double[] powers = new double[2 * transformLength];
+		
+		for (int k = 0; k < transformLength; ++k) {
+			int mirror = (transformLength - k) & (transformLength - 1);
+			double xReal = 0.5 * (real[k] + real[mirror]);
+			double xImaginary = 0.5 * (imaginary[k] - imaginary[mirror]);
+			double mReal = 0.5 * (imaginary[k] + imaginary[mirror]);
+			double mImaginary = -0.5 * (real[k] - real[mirror]);
+			powers[2 * k] = xReal * xReal + xImaginary * xImaginary;
+			powers[2 * k + 1] = mReal * mReal + mImaginary * mImaginary;
+		}
+		
+		for (int k = 0; k < transformLength; ++k) {
+			real[k] = powers[2 * k];
+			imaginary[k] = powers[2 * k + 1];
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, true);
+		
+		double[] autocorrelation = new double[maxLag + 1];
+		double zeroLagValue = real[0]/imaginary[0];
+		
+		for (int lag = 0; lag <= maxLag; ++lag) {
+			double numberOfValidPairs = Math.round(imaginary[lag]);
+			autocorrelation[lag] = numberOfValidPairs < 1 ? Double.NaN : (real[lag]/numberOfValidPairs) * ((double) (length - lag)/length)/zeroLagValue;
+		}
+		
+		return autocorrelation;
+	}
+	
+	/**
+	 * Estimates the integral time scale of a series from its autocorrelation function
+	 * @param autocorrelation The autocorrelation coefficients, for lags of 0, 1, 2... samples
+	 * @param timeStep The time between samples
+	 * @param method The estimation method (one of the INTEGRAL_TIME_SCALE_ constants)
+	 * @return The integral time scale, or NaN if the autocorrelation function does not reach the point the method needs
+	 * (zero, 1/e or a minimum) within the lags supplied
+	 */
+	public static double integralTimeScale(double[] autocorrelation, double timeStep, MAJFCIntegralTimeScaleMethod method) {
+		int numberOfLags = autocorrelation.length;
+		
+		if (method.equals(INTEGRAL_TIME_SCALE_E_FOLDING)) {
+			double threshold = Math.exp(-1);
+			
+			for (int lag = 1; lag < numberOfLags; ++lag) {
+				if (autocorrelation[lag] <= threshold) {
+					return timeStep * MAJFCMaths.interpolate(threshold, autocorrelation[lag - 1], autocorrelation[lag], lag - 1, lag);
+				}
+			}
+			
+			return Double.NaN;
+		}
+		
+		for (int lag = 1; lag < numberOfLags; ++lag) {
+			double previous = autocorrelation[lag - 1];
+			double current = autocorrelation[lag];
+			
+			if (method.equals(INTEGRAL_TIME_SCALE_FIRST_ZERO_CROSSING)) {
+				if (current <= 0) {
+					// Only the part of this interval before the crossing (a triangle) counts
+					double crossingFraction = previous/(previous - current);
+					
+					return MAJFCIntegration.trapezoid(autocorrelation, 0, lag, timeStep) + 0.5 * timeStep * previous * crossingFraction;
+				}
+			} else if (method.equals(INTEGRAL_TIME_SCALE_FIRST_MINIMUM)) {
+				if (lag + 1 < numberOfLags && current < previous && current <= autocorrelation[lag + 1]) {
+					return MAJFCIntegration.trapezoid(autocorrelation, 0, lag + 1, timeStep);
+				}
+			}
+		}
+		
+		return Double.NaN;
+	}
+	
+	/**
+	 * Estimates the integral time scale of a range of a series, calculating its autocorrelation up to maxLag
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param maxLag The largest lag (in samples) to consider
+	 * @param timeStep The time between samples
+	 * @param method The estimation method (one of the INTEGRAL_TIME_SCALE_ constants)
+	 * @return The integral time scale, or NaN if it could not be estimated within maxLag
+	 */
+	public static double integralTimeScale(double[] data, int offset, int length, int maxLag, double timeStep, MAJFCIntegralTimeScaleMethod method) {
+		return integralTimeScale(autocorrelation(data, offset, length, maxLag), timeStep, method);
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	public static class MAJFCIntegralTimeScaleMethod extends MAJFCSafeArray.MAJFCSafeArrayIndex {
+		private MAJFCIntegralTimeScaleMethod(int index) {
+			super(index);
+		}
+	}
+}
@@ -0,0 +1,499 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.mikejesson.majfc.helpers.MAJFCTools.MAJFCToolsException;
+
+/**
+ * Moving-block bootstrap confidence intervals for statistics of autocorrelated records (see Kunsch H.R. (1989), "The jackknife and
+ * the bootstrap for general stationary observations"). Each resample is made by joining blocks of consecutive samples, starting at
+ * random positions, until it is as long as the record, so the correlation within each block is preserved.
+ * 
+ * The record can have several channels (e.g. u and w), which are resampled together. For the built-in statistics (the STATISTIC_
+ * constants) each channel's fluctuations, squared fluctuations and valid samples are summed cumulatively once, so each resample's
+ * statistic costs O(number of blocks) rather than O(record length). Any other statistic can be bootstrapped by extending
+ * MAJFCBootstrapStatistic, which is given each resample in full.
+ * 
+ * Resamples are calculated in parallel, each fork-join task with its own SplittableRandom split from the one seeded, so the results
+ * depend only on the seed. Invalid (NaN) samples are ignored by the built-in statistics.
+ * @author mikefedora
+ *
+ */
+public class MAJFCBlockBootstrap {
+	private static int NUMBER_OF_STATISTIC_TYPES = 0;
+	public static final MAJFCBootstrapStatisticType STATISTIC_MEAN = new MAJFCBootstrapStatisticType(NUMBER_OF_STATISTIC_TYPES++);
+	public static final MAJFCBootstrapStatisticType STATISTIC_STANDARD_DEVIATION = new MAJFCBootstrapStatisticType(NUMBER_OF_STATISTIC_TYPES++);
+	public static final MAJFCBootstrapStatisticType STATISTIC_RMS = new MAJFCBootstrapStatisticType(NUMBER_OF_STATISTIC_TYPES++);
+	/**
+	 * The covariance between two channels, over the samples at which both are valid
+	 */
+	public static final MAJFCBootstrapStatisticType STATISTIC_COVARIANCE = new MAJFCBootstrapStatisticType(NUMBER_OF_STATISTIC_TYPES++);
+	
+	public static final int CONFIDENCE_INTERVAL_LOWER_INDEX = 0;
+	public static final int CONFIDENCE_INTERVAL_UPPER_INDEX = 1;
+	
+	private final double[][] mChannels;
+	private final int mOffset;
+	private final int mLength;
+	private final int mBlockLength;
+	private final int mNumberOfBlocks;
+	private final int mNumberOfBlockStarts;
+	
+	/**
+	 * Cumulative sums for each channel, each with (length + 1) elements, the first being zero
+	 */
+	private final double[] mMeans;
+	private final double[][] mCumulativeSums;
+	private final double[][] mCumulativeSquareSums;
+	private final int[][] mCumulativeValidCounts;
+	
+	/**
+	 * Constructor for a single channel record
+	 * @param data The record
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param blockLength The number of samples in each block, which should be a few integral time scales (and must be between 1 and length)
+	 * @throws MAJFCToolsException If the record is empty or the block length is invalid
+	 */
+	public MAJFCBlockBootstrap(double[] data, int offset, int length, int blockLength) throws MAJFCToolsException {
+		this(new double[][] { data }, offset, length, blockLength);
+	}
+	
+	/**
+	 * Constructor
+	 * @param channels The channels of the record, sampled at the same times
+	 * @param offset The index of the first sample to use (in every channel)
+	 * @param length The number of samples to use
+	 * @param blockLength The number of samples in each block, which should be a few integral time scales (and must be between 1 and length)
+	 * @throws MAJFCToolsException If the record is empty or the block length is invalid
+	 */
+	public MAJFCBlockBootstrap(double[][] channels, int offset, int length, int blockLength) throws MAJFCToolsException {
+		int numberOfChannels = channels.length;
+		
+		// Every resample needs at least one possible block start
+		if (length < 1 || blockLength < 1 || blockLength > length) {
+			throw new MAJFCToolsException("Invalid bootstrap record or block length");
+		}
+		
+		mChannels = channels;
+		mOffset = offset;
+		mLength = length;
+		mBlockLength = blockLength;
+		mNumberOfBlocks = (length + blockLength - 1)/blockLength;
+		mNumberOfBlockStarts = length - blockLength + 1;
+		mMeans = new double[numberOfChannels];
+		mCumulativeSums = new double[numberOfChannels][];
+		mCumulativeSquareSums = new double[numberOfChannels][];
+		mCumulativeValidCounts = new int[numberOfChannels][];
+		
+		for (int channel = 0; channel < numberOfChannels; ++channel) {
+			double[] data = channels[channel];
+			double[] sums = new double[length + 1];
+			double[] squareSums = new double[length + 1];
+			int[] validCounts = new int[length + 1];
+			
+			// Fluctuations from the record mean are summed, to limit the rounding errors in the resample variances
+			double mean = MAJFCMaths.mean(data, offset, length);
+			double sum = 0, squareSum = 0;
+			int validCount = 0;
+			
+			for (int i = 0; i < length; ++i) {
+				double value = data[offset + i];
+				
+				if (value == value) {
+					double fluctuation = value - mean;
+					sum += fluctuation;
+					squareSum += fluctuation * fluctuation;
+					++validCount;
+				}
+				
+				sums[i + 1] = sum;
+				squareSums[i + 1] = squareSum;
+				validCounts[i + 1] = validCount;
+			}
+			
+			mMeans[channel] = mean;
+			mCumulativeSums[channel] = sums;
+			mCumulativeSquareSums[channel] = squareSums;
+			mCumulativeValidCounts[channel] = validCounts;
+		}
+	}
+	
+	/**
+	 * Suggests a block length for a record, proportional to the cube root of its length (see Hall P., Horowitz J.L. and Jing B.-Y. (1995),
+	 * "On blocking rules for the bootstrap with dependent data"). Where the integral time scale is known, a block of a few integral time
+	 * scales is better.
+	 * @param length The number of samples in the record
+	 * @return The block length
+	 */
+	public static int defaultBlockLength(int length) {
+		return Math.max(1, (int) Math.round(Math.cbrt(length)));
+	}
+	
+	/**
+	 * @return The number of samples in each block
+	 */
+	public int getBlockLength() {
+		return mBlockLength;
+	}
+	
+	/**
+	 * Calculates bootstrap replicates of a statistic of one channel
+	 * @param statistic The statistic (STATISTIC_MEAN, STATISTIC_STANDARD_DEVIATION or STATISTIC_RMS)
+	 * @param channel The channel
+	 * @param numberOfResamples The number of resamples
+	 * @param seed The random number generator seed
+	 * @return The statistic of each resample
+	 */
+	public double[] replicates(MAJFCBootstrapStatisticType statistic, int channel, int numberOfResamples, long seed) {
+		return replicates(statistic, channel, channel, numberOfResamples, seed);
+	}
+	
+	/**
+	 * Calculates bootstrap replicates of a statistic of one or two channels
+	 * @param statistic The statistic (one of the STATISTIC_ constants)
+	 * @param channel1 The channel, or the first channel for STATISTIC_COVARIANCE
+	 * @param channel2 The second channel for STATISTIC_COVARIANCE (ignored for the other statistics)
+	 * @param numberOfResamples The number of resamples
+	 * @param seed The random number generator seed
+	 * @return The statistic of each resample
+	 */
+	public double[] replicates(MAJFCBootstrapStatisticType statistic, int channel1, int channel2, int numberOfResamples, long seed) {
+		double[] replicates = new double[numberOfResamples];
+		ResampleTask task;
+		
+		if (statistic.equals(STATISTIC_COVARIANCE)) {
+			task = new ResampleTask(this, new PairSums(this, channel1, channel2), replicates, 0, numberOfResamples, new SplittableRandom(seed));
+		} else {
+			task = new ResampleTask(this, statistic, channel1, replicates, 0, numberOfResamples, new SplittableRandom(seed));
+		}
+		
+		run(task, mNumberOfBlocks);
+		
+		return replicates;
+	}
+	
+	/**
+	 * Calculates bootstrap replicates of any statistic. The statistic is given each resample of every channel in full.
+	 * @param statistic The statistic
+	 * @param numberOfResamples The number of resamples
+	 * @param seed The random number generator seed
+	 * @return The statistic of each resample
+	 */
+	public double[] replicates(MAJFCBootstrapStatistic statistic, int numberOfResamples, long seed) {
+		double[] replicates = new double[numberOfResamples];
+		
+		run(new ResampleTask(this, statistic, replicates, 0, numberOfResamples, new SplittableRandom(seed)), mLength);
+		
+		return replicates;
+	}
+	
+	/**
+	 * Calculates a percentile bootstrap confidence interval for a statistic of one channel
+	 * @param statistic The statistic (STATISTIC_MEAN, STATISTIC_STANDARD_DEVIATION or STATISTIC_RMS)
+	 * @param channel The channel
+	 * @param numberOfResamples The number of resamples
+	 * @param confidenceLevel The confidence level, e.g. 0.95
+	 * @param seed The random number generator seed
+	 * @return The confidence interval (indexed by CONFIDENCE_INTERVAL_LOWER_INDEX and CONFIDENCE_INTERVAL_UPPER_INDEX)
+	 */
+	public double[] confidenceInterval(MAJFCBootstrapStatisticType statistic, int channel, int numberOfResamples, double confidenceLevel, long seed) {
+		return percentileInterval(replicates(statistic, channel, numberOfResamples, seed), confidenceLevel);
+	}
+	
+	/**
+	 * Calculates a percentile bootstrap confidence interval for the covariance between two channels (e.g. a Reynolds shear stress)
+	 * @param channel1 The first channel
+	 * @param channel2 The second channel
+	 * @param numberOfResamples The number of resamples
+	 * @param confidenceLevel The confidence level, e.g. 0.95
+	 * @param seed The random number generator seed
+	 * @return The confidence interval (indexed by CONFIDENCE_INTERVAL_LOWER_INDEX and CONFIDENCE_INTERVAL_UPPER_INDEX)
+	 */
+	public double[] covarianceConfidenceInterval(int channel1, int channel2, int numberOfResamples, double confidenceLevel, long seed) {
+		return percentileInterval(replicates(STATISTIC_COVARIANCE, channel1, channel2, numberOfResamples, seed), confidenceLevel);
+	}
+	
+	/**
+	 * Calculates a percentile bootstrap confidence interval for any statistic
+	 * @param statistic The statistic
+	 * @param numberOfResamples The number of resamples
+	 * @param confidenceLevel The confidence level, e.g. 0.95
+	 * @param seed The random number generator seed
+	 * @return The confidence interval (indexed by CONFIDENCE_INTERVAL_LOWER_INDEX and CONFIDENCE_INTERVAL_UPPER_INDEX)
+	 */
+	public double[] confidenceInterval(MAJFCBootstrapStatistic statistic, int numberOfResamples, double confidenceLevel, long seed) {
+		return percentileInterval(replicates(statistic, numberOfResamples, seed), confidenceLevel);
+	}
+	
+	/**
+	 * Calculates the percentile confidence interval from a set of bootstrap replicates
+	 * @param replicates The replicates
+	 * @param confidenceLevel The confidence level, e.g. 0.95
+	 * @return The confidence interval (indexed by CONFIDENCE_INTERVAL_LOWER_INDEX and CONFIDENCE_INTERVAL_UPPER_INDEX)
+	 */
+	public static double[] percentileInterval(double[] replicates, double confidenceLevel) {
+		double tail = 50 * (1 - confidenceLevel);
+		double[] percentiles = new double[2];
+		percentiles[CONFIDENCE_INTERVAL_LOWER_INDEX] = tail;
+		percentiles[CONFIDENCE_INTERVAL_UPPER_INDEX] = 100 - tail;
+		
+		return new MAJFCQuantiles(replicates.length).percentiles(replicates, 0, replicates.length, percentiles, null);
+	}
+	
+	/**
+	 * Runs a resampling task, in parallel if there is enough work
+	 * @param task The task
+	 * @param workPerResample The approximate cost of each resample
+	 */
+	private static void run(ResampleTask task, int workPerResample) {
+		task.mResamplesPerLeaf = Math.max(1, MAJFCParallelMaths.LEAF_LENGTH/Math.max(1, workPerResample));
+		
+		if (task.mNumberOfResamples <= task.mResamplesPerLeaf) {
+			task.computeDirectly();
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+	}
+	
+	/**
+	 * Cumulative sums for the covariance between two channels, over the samples at which both are valid
+	 */
+	private static class PairSums {
+		private final double mMean1;
+		private final double mMean2;
+		private final double[] mSums1;
+		private final double[] mSums2;
+		private final double[] mProductSums;
+		private final int[] mValidCounts;
+		
+		private PairSums(MAJFCBlockBootstrap bootstrap, int channel1, int channel2) {
+			int length = bootstrap.mLength;
+			double[] data1 = bootstrap.mChannels[channel1];
+			double[] data2 = bootstrap.mChannels[channel2];
+			double sum1 = 0, sum2 = 0, productSum = 0;
+			int validCount = 0;
+			
+			mMean1 = bootstrap.mMeans[channel1];
+			mMean2 = bootstrap.mMeans[channel2];
+			mSums1 = new double[length + 1];
+			mSums2 = new double[length + 1];
+			mProductSums = new double[length + 1];
+			mValidCounts = new int[length + 1];
+			
+			for (int i = 0; i < length; ++i) {
+				double value1 = data1[bootstrap.mOffset + i];
+				double value2 = data2[bootstrap.mOffset + i];
+				
+				if (value1 == value1 && value2 == value2) {
+					double fluctuation1 = value1 - mMean1;
+					double fluctuation2 = value2 - mMean2;
+					sum1 += fluctuation1;
+					sum2 += fluctuation2;
+					productSum += fluctuation1 * fluctuation2;
+					++validCount;
+				}
+				
+				mSums1[i + 1] = sum1;
+				mSums2[i + 1] = sum2;
+				mProductSums[i + 1] = productSum;
+				mValidCounts[i + 1] = validCount;
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the statistic for a range of the resamples
+	 */
+	@SuppressWarnings("serial")
+	private static class ResampleTask extends RecursiveAction {
+		private final MAJFCBlockBootstrap mBootstrap;
+		private final MAJFCBootstrapStatisticType mStatisticType;
+		private final int mChannel;
+		private final PairSums mPairSums;
+		private final MAJFCBootstrapStatistic mStatistic;
+		private final double[] mReplicates;
+		private final int mFirstResample;
+		private final int mNumberOfResamples;
+		private final SplittableRandom mRandom;
+		private int mResamplesPerLeaf;
+		
+		private ResampleTask(MAJFCBlockBootstrap bootstrap, MAJFCBootstrapStatisticType statisticType, int channel, double[] replicates, int firstResample, int numberOfResamples, SplittableRandom random) {
+			this(bootstrap, statisticType, channel, null, null, replicates, firstResample, numberOfResamples, random);
+		}
+		
+		private ResampleTask(MAJFCBlockBootstrap bootstrap, PairSums pairSums, double[] replicates, int firstResample, int numberOfResamples, SplittableRandom random) {
+			this(bootstrap, STATISTIC_COVARIANCE, 0, pairSums, null, replicates, firstResample, numberOfResamples, random);
+		}
+		
+		private ResampleTask(MAJFCBlockBootstrap bootstrap, MAJFCBootstrapStatistic statistic, double[] replicates, int firstResample, int numberOfResamples, SplittableRandom random) {
+			this(bootstrap, null, 0, null, statistic, replicates, firstResample, numberOfResamples, random);
+		}
+		
+		private ResampleTask(MAJFCBlockBootstrap bootstrap, MAJFCBootstrapStatisticType statisticType, int channel, PairSums pairSums, MAJFCBootstrapStatistic statistic,
+				double[] replicates, int firstResample, int numberOfResamples, SplittableRandom random) {
+			mBootstrap = bootstrap;
+			mStatisticType = statisticType;
+			mChannel = channel;
+			mPairSums = pairSums;
+			mStatistic = statistic;
+			mReplicates = replicates;
+			mFirstResample = firstResample;
+			mNumberOfResamples = numberOfResamples;
+			mRandom = random;
+		}
+		
+		@Override
+		protected void compute() {
+			if (mNumberOfResamples <= mResamplesPerLeaf) {
+				computeDirectly();
+				return;
+			}
+			
+			// The first half's generator is split off before forking, so the streams do not depend on the scheduling
+			int halfNumberOfResamples = mNumberOfResamples/2;
+			ResampleTask firstHalf = new ResampleTask(mBootstrap, mStatisticType, mChannel, mPairSums, mStatistic, mReplicates, mFirstResample, halfNumberOfResamples, mRandom.split());
+			ResampleTask secondHalf = new ResampleTask(mBootstrap, mStatisticType, mChannel, mPairSums, mStatistic, mReplicates, mFirstResample + halfNumberOfResamples,
+					mNumberOfResamples - halfNumberOfResamples, mRandom);
+			firstHalf.mResamplesPerLeaf = mResamplesPerLeaf;
+			secondHalf.mResamplesPerLeaf = mResamplesPerLeaf;
+			
+			invokeAll(firstHalf, secondHalf);
+		}
+		
+		private void computeDirectly() {
+			int end = mFirstResample + mNumberOfResamples;
+			double[][] resampledChannels = null;
+			
+			if (mStatistic != null) {
+				resampledChannels = new double[mBootstrap.mChannels.length][mBootstrap.mLength];
+			}
+			
+			for (int resample = mFirstResample; resample < end; ++resample) {
+				if (mStatistic != null) {
+					mReplicates[resample] = resampleInFull(resampledChannels);
+				} else if (mPairSums != null) {
+					mReplicates[resample] = resampleCovariance();
+				} else {
+					mReplicates[resample] = resampleMoments();
+				}
+			}
+		}
+		
+		private double resampleMoments() {
+			MAJFCBlockBootstrap bootstrap = mBootstrap;
+			double[] sums = bootstrap.mCumulativeSums[mChannel];
+			double[] squareSums = bootstrap.mCumulativeSquareSums[mChannel];
+			int[] validCounts = bootstrap.mCumulativeValidCounts[mChannel];
+			int blockLength = bootstrap.mBlockLength;
+			double sum = 0, squareSum = 0;
+			int validCount = 0;
+			
+			for (int remaining = bootstrap.mLength; remaining > 0; remaining -= blockLength) {
+				int start = mRandom.nextInt(bootstrap.mNumberOfBlockStarts);
+				int end = start + Math.min(blockLength, remaining);
+				
+				sum += sums[end] - sums[start];
+				squareSum += squareSums[end] - squareSums[start];
+				validCount += validCounts[end] - validCounts[start];
+			}
+			
+			double meanFluctuation = sum/validCount;
+			double variance = Math.max(squareSum/validCount - meanFluctuation * meanFluctuation, 0);
+			
+			if (mStatisticType.equals(STATISTIC_MEAN)) {
+				return bootstrap.mMeans[mChannel] + meanFluctuation;
+			} else if (mStatisticType.equals(STATISTIC_STANDARD_DEVIATION)) {
+				return Math.sqrt(variance);
+			} else {
+				double mean = bootstrap.mMeans[mChannel] + meanFluctuation;
+				return Math.sqrt(mean * mean + variance);
+			}
+		}
+		
+		private double resampleCovariance() {
+			MAJFCBlockBootstrap bootstrap = mBootstrap;
+			PairSums pairSums = mPairSums;
+			int blockLength = bootstrap.mBlockLength;
+			double sum1 = 0, sum2 = 0, productSum = 0;
+			int validCount = 0;
+			
+			for (int remaining = bootstrap.mLength; remaining > 0; remaining -= blockLength) {
+				int start = mRandom.nextInt(bootstrap.mNumberOfBlockStarts);
+				int end = start + Math.min(blockLength, remaining);
+				
+				sum1 += pairSums.mSums1[end] - pairSums.mSums1[start];
+				sum2 += pairSums.mSums2[end] - pairSums.mSums2[start];
+				productSum += pairSums.mProductSums[end] - pairSums.mProductSums[start];
+				validCount += pairSums.mValidCounts[end] - pairSums.mValidCounts[start];
+			}
+			
+			return productSum/validCount - (sum1/validCount) * (sum2/validCount);
+		}
+		
+		private double resampleInFull(double[][] resampledChannels) {
+			MAJFCBlockBootstrap bootstrap = mBootstrap;
+			int numberOfChannels = resampledChannels.length;
+			int blockLength = bootstrap.mBlockLength;
+			int position = 0;
+			
+			for (int remaining = bootstrap.mLength; remaining > 0; remaining -= blockLength) {
+				int start = bootstrap.mOffset + mRandom.nextInt(bootstrap.mNumberOfBlockStarts);
+				int thisBlockLength = Math.min(blockLength, remaining);
+				
+				for (int channel = 0; channel < numberOfChannels; ++channel) {
+					System.arraycopy(bootstrap.mChannels[channel], start, resampledChannels[channel], position, thisBlockLength);
+				}
+				
+				position += thisBlockLength;
+			}
+			
+			return mStatistic.calculate(resampledChannels, bootstrap.mLength);
+		}
+	}
+	
+	/**
+	 * A statistic to be bootstrapped, calculated from each resample in full (e.g. the frequency of a spectral peak)
+	 * @author mikefedora
+	 *
+	 */
+	public static abstract class MAJFCBootstrapStatistic {
+		/**
+		 * Calculates the statistic of a resample. Implementations must be safe to call from several threads at once.
+		 * @param channels The resampled channels, each holding length samples. The arrays are reused for later resamples.
+		 * @param length The number of samples in each channel
+		 * @return The statistic
+		 */
+		public abstract double calculate(double[][] channels, int length);
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	public static class MAJFCBootstrapStatisticType extends MAJFCSafeArray.MAJFCSafeArrayIndex {
+		private MAJFCBootstrapStatisticType(int index) {
+			super(index);
+		}
+	}
+}
@@ -0,0 +1,277 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+
+import com.mikejesson.majfc.helpers.MAJFCTools.MAJFCToolsException;
+
+/**
+ * FFT convolution of a signal with a (long) FIR kernel by the overlap-save method, giving y[n] = sum over k of h[k].x[n - k], with the
+ * signal taken to be zero before its first value. The kernel's spectrum is calculated once, when the convolver is made, and each
+ * transform then produces up to (transform length - kernel length + 1) outputs for two blocks of the signal at once (one in the real
+ * part and one in the imaginary part, which works because the kernel is real).
+ * 
+ * The signal may be given in blocks of any length, as a streaming filter, and the output is the same as for the whole signal in one go.
+ * For matched filtering (cross-correlation with a template), use a kernel which is the template reversed.
+ * @author mikefedora
+ *
+ */
+public class MAJFCConvolver extends MAJFCStreamingFilter {
+	private static final int MINIMUM_TRANSFORM_LENGTH = 64;
+	/**
+	 * The history (the last kernel length - 1 input values) is held in the state array after the started flag
+	 */
+	private static final int HISTORY_INDEX = 1;
+	
+	private final int mKernelLength;
+	private final int mTransformLength;
+	private final double[] mKernelSpectrumReal;
+	private final double[] mKernelSpectrumImaginary;
+	private final double[] mReal;
+	private final double[] mImaginary;
+
+	/**
+	 * Constructor, using a transform length of about four times the kernel length
+	 * @param kernel The FIR kernel (filter coefficients, or impulse response)
+	 * @param offset The index of the first kernel value
+	 * @param length The number of kernel values
+	 * @throws MAJFCToolsException If the kernel is empty
+	 */
+	public MAJFCConvolver(double[] kernel, int offset, int length) throws MAJFCToolsException {
+		this(kernel, offset, length, MAJFCMaths.powerOfTwoAtLeast(Math.max(4 * length, MINIMUM_TRANSFORM_LENGTH)));
+	}
+	
+	/**
+	 * Constructor
+	 * @param kernel The FIR kernel (filter coefficients, or impulse response)
+	 * @param offset The index of the first kernel value
+	 * @param length The number of kernel values
+	 * @param transformLength The FFT length, which must be a power of 2 no less than the kernel length. Each transform produces up to
+	 * 2 * (transformLength - length + 1) output values.
+	 * @throws MAJFCToolsException If the kernel is empty or the transform length is invalid
+	 */
+	public MAJFCConvolver(double[] kernel, int offset, int length, int transformLength) throws MAJFCToolsException {
+		super(historyLength(length, transformLength));
+		
+		mKernelLength = length;
+		mTransformLength = transformLength;
+		mKernelSpectrumReal = new double[transformLength];
+		mKernelSpectrumImaginary = new double[transformLength];
+		System.arraycopy(kernel, offset, mKernelSpectrumReal, 0, length);
+		MAJFCMaths.fastFourierTransform(mKernelSpectrumReal, mKernelSpectrumImaginary, transformLength, false);
+		mReal = new double[transformLength];
+		mImaginary = new double[transformLength];
+	}
+	
+	/**
+	 * Copy constructor. The new convolver shares the kernel spectrum but starts with no history, so that (e.g.) several channels can be
+	 * filtered with the same kernel without recalculating its spectrum.
+	 * @param convolver The convolver to copy
+	 */
+	public MAJFCConvolver(MAJFCConvolver convolver) {
+		super(convolver.mKernelLength - 1);
+		
+		mKernelLength = convolver.mKernelLength;
+		mTransformLength = convolver.mTransformLength;
+		mKernelSpectrumReal = convolver.mKernelSpectrumReal;
+		mKernelSpectrumImaginary = convolver.mKernelSpectrumImaginary;
+		mReal = new double[mTransformLength];
+		mImaginary = new double[mTransformLength];
+	}
+	
+	/**
+	 * Checks the kernel and transform lengths, before the state is allocated
+	 * @param kernelLength The number of kernel values
+	 * @param transformLength The FFT length
+	 * @return The history length (kernelLength - 1)
+	 * @throws MAJFCToolsException If the kernel is empty or the transform length is invalid
+	 */
+	private static int historyLength(int kernelLength, int transformLength) throws MAJFCToolsException {
+		if (kernelLength < 1 || transformLength < kernelLength || (transformLength & (transformLength - 1)) != 0) {
+			throw new MAJFCToolsException("Invalid convolution kernel or transform length");
+		}
+		
+		return kernelLength - 1;
+	}
+	
+	/**
+	 * Calculates the full convolution of a signal with a kernel (length signalLength + kernelLength - 1)
+	 * @param signal The signal
+	 * @param signalOffset The index of the first signal value
+	 * @param signalLength The number of signal values
+	 * @param kernel The kernel
+	 * @param kernelOffset The index of the first kernel value
+	 * @param kernelLength The number of kernel values
+	 * @return The convolution, or null if the kernel is empty
+	 */
+	public static double[] convolve(double[] signal, int signalOffset, int signalLength, double[] kernel, int kernelOffset, int kernelLength) {
+		MAJFCConvolver convolver;
+		
+		try {
+			convolver = new MAJFCConvolver(kernel, kernelOffset, kernelLength);
+		} catch (MAJFCToolsException theException) {
+			return null;
+		}
+		
+		double[] convolution = new double[signalLength + kernelLength - 1];
+		
+		convolver.process(signal, signalOffset, signalLength, convolution, 0);
+		convolver.flush(convolution, signalLength);
+		
+		return convolution;
+	}
+	
+	/**
+	 * @return The number of kernel values
+	 */
+	public int getKernelLength() {
+		return mKernelLength;
+	}
+	
+	/**
+	 * @return The FFT length
+	 */
+	public int getTransformLength() {
+		return mTransformLength;
+	}
+	
+	/**
+	 * Filters the next block of the signal. The input is not changed, and nothing is allocated.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value
+	 * @param length The number of values
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset)
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 */
+	@Override
+	public void process(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+		// The signal is zero before its first value, which is the initial (all zero) history, so no start-up is needed
+		if (length > 0) {
+			processStarted(inputValues, offset, length, outputValues, outputOffset);
+		}
+	}
+	
+	/**
+	 * Writes out the last kernel length - 1 values of the full convolution (the response to the end of the signal, as though it were
+	 * followed by zeros) and resets the convolver for a new signal
+	 * @param outputValues The array to write the values into
+	 * @param outputOffset The index in outputValues to write the first value to
+	 */
+	public void flush(double[] outputValues, int outputOffset) {
+		int historyLength = mKernelLength - 1;
+		int blockLength = mTransformLength - historyLength;
+		double[] real = mReal;
+		double[] imaginary = mImaginary;
+		
+		// As processStarted, with blocks of zeros which are filled in here rather than read from an input array
+		for (int remaining = historyLength; remaining > 0; ) {
+			int length = Math.min(blockLength, remaining);
+			
+			System.arraycopy(mState, HISTORY_INDEX, real, 0, historyLength);
+			Arrays.fill(real, historyLength, mTransformLength, 0);
+			Arrays.fill(imaginary, 0);
+			multiplyByKernelSpectrum();
+			System.arraycopy(real, historyLength, outputValues, outputOffset, length);
+			
+			System.arraycopy(mState, HISTORY_INDEX + length, mState, HISTORY_INDEX, historyLength - length);
+			Arrays.fill(mState, HISTORY_INDEX + historyLength - length, HISTORY_INDEX + historyLength, 0);
+			outputOffset += length;
+			remaining -= length;
+		}
+		
+		reset();
+	}
+	
+	@Override
+	protected void start(double[] inputValues, int offset, double[] outputValues, int outputOffset) {
+		// Never called, since process is overridden (the initial all zero history needs no start-up)
+	}
+
+	@Override
+	protected void processStarted(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+		int historyLength = mKernelLength - 1;
+		int blockLength = mTransformLength - historyLength;
+		double[] real = mReal;
+		double[] imaginary = mImaginary;
+		
+		while (length > 0) {
+			int firstLength = Math.min(blockLength, length);
+			int secondLength = Math.min(blockLength, length - firstLength);
+			
+			// Each block is preceded by the history for it, and the rest of the transform is zero
+			System.arraycopy(mState, HISTORY_INDEX, real, 0, historyLength);
+			System.arraycopy(inputValues, offset, real, historyLength, firstLength);
+			Arrays.fill(real, historyLength + firstLength, mTransformLength, 0);
+			updateHistory(inputValues, offset, firstLength);
+			
+			if (secondLength > 0) {
+				System.arraycopy(mState, HISTORY_INDEX, imaginary, 0, historyLength);
+				System.arraycopy(inputValues, offset + firstLength, imaginary, historyLength, secondLength);
+				Arrays.fill(imaginary, historyLength + secondLength, mTransformLength, 0);
+				updateHistory(inputValues, offset + firstLength, secondLength);
+			} else {
+				Arrays.fill(imaginary, 0);
+			}
+			
+			multiplyByKernelSpectrum();
+			
+			// The first historyLength values of each circular convolution are wrapped around, and are discarded
+			System.arraycopy(real, historyLength, outputValues, outputOffset, firstLength);
+			System.arraycopy(imaginary, historyLength, outputValues, outputOffset + firstLength, secondLength);
+			
+			offset += firstLength + secondLength;
+			outputOffset += firstLength + secondLength;
+			length -= firstLength + secondLength;
+		}
+	}
+	
+	/**
+	 * Convolves the contents of the work arrays (circularly) with the kernel: transform, multiply by the kernel spectrum and transform back
+	 */
+	private void multiplyByKernelSpectrum() {
+		double[] real = mReal;
+		double[] imaginary = mImaginary;
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, mTransformLength, false);
+		
+		for (int i = 0; i < mTransformLength; ++i) {
+			double productReal = real[i] * mKernelSpectrumReal[i] - imaginary[i] * mKernelSpectrumImaginary[i];
+			imaginary[i] = real[i] * mKernelSpectrumImaginary[i] + imaginary[i] * mKernelSpectrumReal[i];
+			real[i] = productReal;
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, mTransformLength, true);
+	}
+	
+	/**
+	 * Updates the history to end with a block of input values (which must be called before the block is overwritten by in-place output)
+	 * @param inputValues The input values
+	 * @param offset The index of the first value of the block
+	 * @param length The number of values in the block
+	 */
+	private void updateHistory(double[] inputValues, int offset, int length) {
+		int historyLength = mKernelLength - 1;
+		
+		if (length >= historyLength) {
+			System.arraycopy(inputValues, offset + length - historyLength, mState, HISTORY_INDEX, historyLength);
+		} else {
+			System.arraycopy(mState, HISTORY_INDEX + length, mState, HISTORY_INDEX, historyLength - length);
+			System.arraycopy(inputValues, offset, mState, HISTORY_INDEX + historyLength - length, length);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * The covariance and correlation matrices of a set of channels (e.g. the u, v and w velocities of one probe, or those of several probes)
+ * sampled at the same times. Each channel's mean is calculated once; the series are then processed in short blocks, in which each
+ * channel's fluctuations are calculated once and held in cache while every pair of channels is accumulated from them.
+ * 
+ * Samples at which any channel is invalid (NaN) are ignored for all channels, so that every entry of the matrix is calculated from the
+ * same samples. Covariances are population values, consistent with MAJFCMaths.covariance.
+ * @author mikefedora
+ *
+ */
+public class MAJFCCovarianceMatrix {
+	/**
+	 * The number of samples processed per block. The fluctuations of a block of every channel need to fit in the L1/L2 cache.
+	 */
+	private static final int BLOCK_LENGTH = 512;
+	
+	private final int mNumberOfChannels;
+	private final long mValidCount;
+	private final double[] mMeans;
+	private final double[][] mCovariances;
+
+	private MAJFCCovarianceMatrix(double[] means, double[][] covariances, long validCount) {
+		mNumberOfChannels = means.length;
+		mMeans = means;
+		mCovariances = covariances;
+		mValidCount = validCount;
+	}
+	
+	/**
+	 * Calculates the covariance matrix of a set of channels
+	 * @param channels The channels, each holding at least length values
+	 * @return The covariance matrix
+	 */
+	public static MAJFCCovarianceMatrix calculate(double[][] channels) {
+		// With no channels there are no samples (and an empty matrix)
+		int length = channels.length == 0 ? 0 : Integer.MAX_VALUE;
+		
+		for (int channel = 0; channel < channels.length; ++channel) {
+			length = Math.min(length, channels[channel].length);
+		}
+		
+		return calculate(channels, 0, length);
+	}
+	
+	/**
+	 * Calculates the covariance matrix of ranges of a set of channels
+	 * @param channels The channels
+	 * @param offset The index of the first sample to use (in every channel)
+	 * @param length The number of samples to use
+	 * @return The covariance matrix
+	 */
+	public static MAJFCCovarianceMatrix calculate(double[][] channels, int offset, int length) {
+		int numberOfChannels = channels.length;
+		int end = offset + length;
+		double[] means = new double[numberOfChannels];
+		double[][] covariances = new double[numberOfChannels][numberOfChannels];
+		boolean[] validSamples = new boolean[BLOCK_LENGTH];
+		
+		// First pass - means over the samples valid in every channel
+		long validCount = 0;
+		
+		for (int blockStart = offset; blockStart < end; blockStart += BLOCK_LENGTH) {
+			int blockLength = Math.min(BLOCK_LENGTH, end - blockStart);
+			validCount += findValidSamples(channels, blockStart, blockLength, validSamples);
+			
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				double[] data = channels[channel];
+				double total = 0;
+				
+				for (int i = 0; i < blockLength; ++i) {
+					total += validSamples[i] ? data[blockStart + i] : 0;
+				}
+				
+				means[channel] += total;
+			}
+		}
+		
+		for (int channel = 0; channel < numberOfChannels; ++channel) {
+			means[channel] /= validCount;
+		}
+		
+		// Second pass - fluctuation products, a block at a time. Invalid samples are given zero fluctuation so they add nothing.
+		double[][] fluctuations = new double[numberOfChannels][BLOCK_LENGTH];
+		
+		for (int blockStart = offset; blockStart < end; blockStart += BLOCK_LENGTH) {
+			int blockLength = Math.min(BLOCK_LENGTH, end - blockStart);
+			findValidSamples(channels, blockStart, blockLength, validSamples);
+			
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				double[] data = channels[channel];
+				double[] channelFluctuations = fluctuations[channel];
+				double mean = means[channel];
+				
+				for (int i = 0; i < blockLength; ++i) {
+					channelFluctuations[i] = validSamples[i] ? data[blockStart + i] - mean : 0;
+				}
+			}
+			
+			for (int channel1 = 0; channel1 < numberOfChannels; ++channel1) {
+				double[] fluctuations1 = fluctuations[channel1];
+				
+				for (int channel2 = channel1; channel2 < numberOfChannels; ++channel2) {
+					double[] fluctuations2 = fluctuations[channel2];
+					double productSum = 0;
+					
+					for (int i = 0; i < blockLength; ++i) {
+						productSum += fluctuations1[i] * fluctuations2[i];
+					}
+					
+					covariances[channel1][channel2] += productSum;
+				}
+			}
+		}
+		
+		for (int channel1 = 0; channel1 < numberOfChannels; ++channel1) {
+			for (int channel2 = channel1; channel2 < numberOfChannels; ++channel2) {
+				covariances[channel1][channel2] /= validCount;
+				covariances[channel2][channel1] = covariances[channel1][channel2];
+			}
+		}
+		
+		return new MAJFCCovarianceMatrix(means, covariances, validCount);
+	}
+	
+	/**
+	 * Marks which samples of a block are valid in every channel
+	 * @return The number of valid samples in the block
+	 */
+	private static int findValidSamples(double[][] channels, int blockStart, int blockLength, boolean[] validSamples) {
+		for (int i = 0; i < blockLength; ++i) {
+			validSamples[i] = true;
+		}
+		
+		for (int channel = 0; channel < channels.length; ++channel) {
+			double[] data = channels[channel];
+			
+			for (int i = 0; i < blockLength; ++i) {
+				double value = data[blockStart + i];
+				validSamples[i] &= value == value;
+			}
+		}
+		
+		int numberOfValidSamples = 0;
+		
+		for (int i = 0; i < blockLength; ++i) {
+			numberOfValidSamples += validSamples[i] ? 1 : 0;
+		}
+		
+		return numberOfValidSamples;
+	}
+	
+	/**
+	 * @return The number of channels
+	 */
+	public int getNumberOfChannels() {
+		return mNumberOfChannels;
+	}
+	
+	/**
+	 * @return The number of samples which were valid in every channel, and so were used
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+	
+	/**
+	 * @param channel The channel index
+	 * @return The mean of the channel
+	 */
+	public double getMean(int channel) {
+		return mMeans[channel];
+	}
+	
+	/**
+	 * @param channel The channel index
+	 * @return The (population) standard deviation of the channel
+	 */
+	public double getStandardDeviation(int channel) {
+		return Math.sqrt(mCovariances[channel][channel]);
+	}
+	
+	/**
+	 * @param channel1 The first channel index
+	 * @param channel2 The second channel index
+	 * @return The covariance between the channels
+	 */
+	public double getCovariance(int channel1, int channel2) {
+		return mCovariances[channel1][channel2];
+	}
+	
+	/**
+	 * @param channel1 The first channel index
+	 * @param channel2 The second channel index
+	 * @return The correlation between the channels
+	 */
+	public double getCorrelation(int channel1, int channel2) {
+		return mCovariances[channel1][channel2]/Math.sqrt(mCovariances[channel1][channel1] * mCovariances[channel2][channel2]);
+	}
+	
+	/**
+	 * @return A copy of the means of the channels
+	 */
+	public double[] getMeans() {
+		return mMeans.clone();
+	}
+	
+	/**
+	 * @return A copy of the covariance matrix
+	 */
+	public double[][] getCovarianceMatrix() {
+		double[][] covariances = new double[mNumberOfChannels][];
+		
+		for (int channel = 0; channel < mNumberOfChannels; ++channel) {
+			covariances[channel] = mCovariances[channel].clone();
+		}
+		
+		return covariances;
+	}
+	
+	/**
+	 * @return The correlation matrix
+	 */
+	public double[][] getCorrelationMatrix() {
+		double[][] correlations = new double[mNumberOfChannels][mNumberOfChannels];
+		
+		for (int channel1 = 0; channel1 < mNumberOfChannels; ++channel1) {
+			for (int channel2 = 0; channel2 < mNumberOfChannels; ++channel2) {
+				correlations[channel1][channel2] = getCorrelation(channel1, channel2);
+			}
+		}
+		
+		return correlations;
+	}
+}
@@ -0,0 +1,175 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * Cumulative (prefix) statistics of primitive series, i.e. the statistics of the first 1, 2, 3... values, as used to show that a
+ * record is long enough for its statistics to have converged. All the prefixes are calculated in a single pass of a
+ * MAJFCStatisticsAccumulator, rather than the O(n^2) of calculating each prefix separately.
+ * 
+ * Element k of each output series is the statistic of data[offset] to data[offset + k]. Invalid (NaN) values are skipped, so the
+ * statistic is unchanged at them; prefixes with no valid values give NaN.
+ * @author mikefedora
+ *
+ */
+public class MAJFCCumulativeStatistics {
+	/**
+	 * Calculates the cumulative mean of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param output The array to write the results into (must hold at least length values), or null to allocate one
+	 * @return The cumulative mean
+	 */
+	public static double[] cumulativeMean(double[] data, int offset, int length, double[] output) {
+		if (output == null) {
+			output = new double[length];
+		}
+		
+		cumulativeMoments(data, offset, length, output, null, null);
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates the cumulative (population) standard deviation of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param output The array to write the results into (must hold at least length values), or null to allocate one
+	 * @return The cumulative standard deviation
+	 */
+	public static double[] cumulativeStandardDeviation(double[] data, int offset, int length, double[] output) {
+		if (output == null) {
+			output = new double[length];
+		}
+		
+		cumulativeMoments(data, offset, length, null, output, null);
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates the cumulative skewness of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param output The array to write the results into (must hold at least length values), or null to allocate one
+	 * @return The cumulative skewness
+	 */
+	public static double[] cumulativeSkewness(double[] data, int offset, int length, double[] output) {
+		if (output == null) {
+			output = new double[length];
+		}
+		
+		cumulativeMoments(data, offset, length, null, null, output);
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates the cumulative mean, standard deviation and skewness of a range of a series in a single pass
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param means The array to write the cumulative means into, or null if they are not needed
+	 * @param standardDeviations The array to write the cumulative (population) standard deviations into, or null if they are not needed
+	 * @param skewnesses The array to write the cumulative skewnesses into, or null if they are not needed
+	 */
+	public static void cumulativeMoments(double[] data, int offset, int length, double[] means, double[] standardDeviations, double[] skewnesses) {
+		MAJFCStatisticsAccumulator accumulator = new MAJFCStatisticsAccumulator();
+		
+		for (int k = 0; k < length; ++k) {
+			accumulator.add(data[offset + k]);
+			
+			if (means != null) {
+				means[k] = accumulator.getMean();
+			}
+			
+			if (standardDeviations != null) {
+				standardDeviations[k] = accumulator.getStandardDeviation();
+			}
+			
+			if (skewnesses != null) {
+				skewnesses[k] = accumulator.getSkewness();
+			}
+		}
+	}
+	
+	/**
+	 * Calculates the moments of a range of a series up to each of a set of record lengths, in a single pass
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param checkpoints The increasing record lengths (numbers of values from offset) to calculate the moments at
+	 * @return The moments for each record length
+	 * @see #logarithmicCheckpoints(int, int, int)
+	 */
+	public static MAJFCMoments[] momentsAtCheckpoints(double[] data, int offset, int[] checkpoints) {
+		int numberOfCheckpoints = checkpoints.length;
+		MAJFCMoments[] moments = new MAJFCMoments[numberOfCheckpoints];
+		MAJFCStatisticsAccumulator accumulator = new MAJFCStatisticsAccumulator();
+		int k = 0;
+		
+		for (int checkpoint = 0; checkpoint < numberOfCheckpoints; ++checkpoint) {
+			int checkpointLength = checkpoints[checkpoint];
+			
+			for (; k < checkpointLength; ++k) {
+				accumulator.add(data[offset + k]);
+			}
+			
+			moments[checkpoint] = accumulator.getMoments();
+		}
+		
+		return moments;
+	}
+	
+	/**
+	 * Makes a set of record lengths spaced evenly on a logarithmic scale, for plotting convergence against record length
+	 * @param minimumLength The shortest record length
+	 * @param length The longest record length (the length of the whole record)
+	 * @param numberOfCheckpoints The number of record lengths wanted. Fewer are returned if there are not this many different whole lengths.
+	 * @return The increasing record lengths, ending with length
+	 */
+	public static int[] logarithmicCheckpoints(int minimumLength, int length, int numberOfCheckpoints) {
+		minimumLength = Math.max(1, Math.min(minimumLength, length));
+		
+		if (numberOfCheckpoints < 2 || minimumLength == length) {
+			return new int[] { length };
+		}
+		
+		int[] checkpoints = new int[numberOfCheckpoints];
+		double logMinimum = Math.log(minimumLength);
+		double logStep = (Math.log(length) - logMinimum)/(numberOfCheckpoints - 1);
+		int numberOfDistinctCheckpoints = 0;
+		
+		for (int checkpoint = 0; checkpoint < numberOfCheckpoints; ++checkpoint) {
+			int checkpointLength = checkpoint == numberOfCheckpoints - 1 ? length : (int) Math.round(Math.exp(logMinimum + checkpoint * logStep));
+			
+			if (numberOfDistinctCheckpoints == 0 || checkpointLength > checkpoints[numberOfDistinctCheckpoints - 1]) {
+				checkpoints[numberOfDistinctCheckpoints++] = checkpointLength;
+			}
+		}
+		
+		if (numberOfDistinctCheckpoints < numberOfCheckpoints) {
+			int[] distinctCheckpoints = new int[numberOfDistinctCheckpoints];
+			System.arraycopy(checkpoints, 0, distinctCheckpoints, 0, numberOfDistinctCheckpoints);
+			checkpoints = distinctCheckpoints;
+		}
+		
+		return checkpoints;
+	}
+}
@@ -0,0 +1,260 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Applies the same (causal) filter to several channels (e.g. u, v, w, SNR and correlation) in one pass, keeping a state for each channel
+ * between calls so that a record can be processed in blocks. The coefficients are shared, and the states are held with the channel
+ * innermost so that each filter step runs along contiguous memory for all the channels at once.
+ * 
+ * The data may be interleaved (all the channels for the first sample time, then all the channels for the second, ...) or held as one
+ * array per channel.
+ * @author mikefedora
+ *
+ */
+public class MAJFCFilterBank {
+	/**
+	 * The state array holds a flag (0 or 1) saying whether the first sample has been seen, followed by z1 for each channel then z2 for
+	 * each channel, for each section in turn
+	 */
+	private static final int STARTED_INDEX = 0;
+	private static final int STATES_INDEX = 1;
+	
+	private final int mNumberOfChannels;
+	private final int mNumberOfSections;
+	private final double[] mCoefficients;
+	/**
+	 * The section states for a unit first value, from which each channel is started
+	 */
+	private final double[] mStartStates;
+	private final double[] mState;
+	private final double[] mFrame;
+
+	/**
+	 * Constructor
+	 * @param numberOfChannels The number of channels
+	 * @param coefficients The coefficients of each section, as for MAJFCSecondOrderSections
+	 * @param startStates The section states (z1, z2 for each section) for a unit first value
+	 */
+	private MAJFCFilterBank(int numberOfChannels, double[] coefficients, double[] startStates) {
+		mNumberOfChannels = numberOfChannels;
+		mNumberOfSections = coefficients.length/MAJFCSecondOrderSections.COEFFICIENTS_PER_SECTION;
+		mCoefficients = coefficients;
+		mStartStates = startStates;
+		mState = new double[STATES_INDEX + 2 * mNumberOfSections * numberOfChannels];
+		mFrame = new double[numberOfChannels];
+	}
+	
+	/**
+	 * Makes a bank of second order sections filters, each equivalent to MAJFCSecondOrderSections.filter (starting from the steady state for
+	 * its first value)
+	 * @param numberOfChannels The number of channels
+	 * @param sections The filter
+	 * @return The filter bank
+	 */
+	public static MAJFCFilterBank forSections(int numberOfChannels, MAJFCSecondOrderSections sections) {
+		double[] startStates = new double[2 * sections.getNumberOfSections()];
+		sections.setSteadyState(startStates, 1);
+		
+		return new MAJFCFilterBank(numberOfChannels, sections.getCoefficients(), startStates);
+	}
+	
+	/**
+	 * Makes a bank of first order low pass filters, each equivalent (to rounding) to MAJFCMaths.lowPassFilter
+	 * @param numberOfChannels The number of channels
+	 * @param cutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter bank
+	 */
+	public static MAJFCFilterBank lowPass(int numberOfChannels, double cutoffFrequency, double timeStep) {
+		double rc = 1/(2 * Math.PI * cutoffFrequency);
+		double smoothingFactor = timeStep/(rc + timeStep);
+		
+		return firstOrder(numberOfChannels, smoothingFactor, 0, smoothingFactor - 1);
+	}
+	
+	/**
+	 * Makes a bank of first order high pass filters, each equivalent (to rounding) to MAJFCMaths.highPassFilter without mean adjustment
+	 * @param numberOfChannels The number of channels
+	 * @param cutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter bank
+	 */
+	public static MAJFCFilterBank highPass(int numberOfChannels, double cutoffFrequency, double timeStep) {
+		double rc = 1/(2 * Math.PI * cutoffFrequency);
+		double scaleFactor = rc/(rc + timeStep);
+		
+		return firstOrder(numberOfChannels, scaleFactor, -scaleFactor, -scaleFactor);
+	}
+	
+	/**
+	 * Makes a bank of first order filters, y[n] = b0.x[n] + b1.x[n - 1] - a1.y[n - 1], held as a single section. Like the MAJFCMaths
+	 * filters, the first output of each channel is its first value.
+	 */
+	private static MAJFCFilterBank firstOrder(int numberOfChannels, double b0, double b1, double a1) {
+		double[] coefficients = new double[MAJFCSecondOrderSections.COEFFICIENTS_PER_SECTION];
+		coefficients[MAJFCSecondOrderSections.B0_OFFSET] = b0;
+		coefficients[MAJFCSecondOrderSections.B1_OFFSET] = b1;
+		coefficients[MAJFCSecondOrderSections.A1_OFFSET] = a1;
+		
+		// The output for the first value x is then b0.x + z1 = x
+		return new MAJFCFilterBank(numberOfChannels, coefficients, new double[] { 1 - b0, 0 });
+	}
+	
+	/**
+	 * @return The number of channels
+	 */
+	public int getNumberOfChannels() {
+		return mNumberOfChannels;
+	}
+	
+	/**
+	 * Filters the next block of interleaved data. The input is not changed, and nothing is allocated.
+	 * @param inputValues The values to filter, with the values for each channel at a sample time together
+	 * @param offset The index of the first value of the first sample time
+	 * @param numberOfSampleTimes The number of sample times (so numberOfSampleTimes * the number of channels values are filtered)
+	 * @param outputValues The array to write the filtered values into, in the same layout, which may be inputValues (with the same offset)
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 */
+	public void processInterleaved(double[] inputValues, int offset, int numberOfSampleTimes, double[] outputValues, int outputOffset) {
+		int numberOfChannels = mNumberOfChannels;
+		
+		if (numberOfSampleTimes < 1) {
+			return;
+		}
+		
+		if (inputValues != outputValues || offset != outputOffset) {
+			System.arraycopy(inputValues, offset, outputValues, outputOffset, numberOfSampleTimes * numberOfChannels);
+		}
+		
+		start(outputValues, outputOffset);
+		
+		for (int i = 0, frameOffset = outputOffset; i < numberOfSampleTimes; ++i, frameOffset += numberOfChannels) {
+			filterFrame(outputValues, frameOffset);
+		}
+	}
+	
+	/**
+	 * Filters the next block of data held as one array per channel. The input is not changed, and nothing is allocated.
+	 * @param inputValues The values to filter, one array for each channel
+	 * @param offset The index of the first value in each channel's array
+	 * @param length The number of values in each channel to filter
+	 * @param outputValues The arrays to write the filtered values into, which may be inputValues (with the same offset)
+	 * @param outputOffset The index in each output array to write the first filtered value to
+	 */
+	public void process(double[][] inputValues, int offset, int length, double[][] outputValues, int outputOffset) {
+		int numberOfChannels = mNumberOfChannels;
+		double[] frame = mFrame;
+		
+		if (length < 1) {
+			return;
+		}
+		
+		for (int i = 0; i < length; ++i) {
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				frame[channel] = inputValues[channel][offset + i];
+			}
+			
+			if (i == 0) {
+				start(frame, 0);
+			}
+			
+			filterFrame(frame, 0);
+			
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				outputValues[channel][outputOffset + i] = frame[channel];
+			}
+		}
+	}
+	
+	/**
+	 * Returns the filters to their initial state, ready for a new record
+	 */
+	public void reset() {
+		Arrays.fill(mState, 0);
+	}
+	
+	/**
+	 * @return A copy of the filters' state
+	 */
+	public double[] snapshot() {
+		return mState.clone();
+	}
+	
+	/**
+	 * Restores a state saved by snapshot()
+	 * @param snapshot The saved state, from a filter bank of the same design and number of channels
+	 */
+	public void restore(double[] snapshot) {
+		System.arraycopy(snapshot, 0, mState, 0, mState.length);
+	}
+	
+	/**
+	 * Starts each channel's filter from its first value, if this is the start of a record
+	 * @param values The values of the first sample time
+	 * @param offset The index of the first channel's value
+	 */
+	private void start(double[] values, int offset) {
+		if (mState[STARTED_INDEX] != 0) {
+			return;
+		}
+		
+		int numberOfChannels = mNumberOfChannels;
+		
+		for (int i = 0; i < mStartStates.length; ++i) {
+			double startState = mStartStates[i];
+			int stateOffset = STATES_INDEX + i * numberOfChannels;
+			
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				mState[stateOffset + channel] = startState * values[offset + channel];
+			}
+		}
+		
+		mState[STARTED_INDEX] = 1;
+	}
+	
+	/**
+	 * Runs the values for one sample time through the sections (in transposed direct form II), all the channels at each step
+	 * @param values The values for each channel, replaced by the filtered values
+	 * @param offset The index of the first channel's value
+	 */
+	private void filterFrame(double[] values, int offset) {
+		int numberOfChannels = mNumberOfChannels;
+		double[] coefficients = mCoefficients;
+		double[] states = mState;
+		
+		for (int section = 0, base = 0; section < mNumberOfSections; ++section, base += MAJFCSecondOrderSections.COEFFICIENTS_PER_SECTION) {
+			double b0 = coefficients[base + MAJFCSecondOrderSections.B0_OFFSET];
+			double b1 = coefficients[base + MAJFCSecondOrderSections.B1_OFFSET];
+			double b2 = coefficients[base + MAJFCSecondOrderSections.B2_OFFSET];
+			double a1 = coefficients[base + MAJFCSecondOrderSections.A1_OFFSET];
+			double a2 = coefficients[base + MAJFCSecondOrderSections.A2_OFFSET];
+			int z1Offset = STATES_INDEX + 2 * section * numberOfChannels;
+			int z2Offset = z1Offset + numberOfChannels;
+			
+			for (int channel = 0; channel < numberOfChannels; ++channel) {
+				double value = values[offset + channel];
+				double output = b0 * value + states[z1Offset + channel];
+				states[z1Offset + channel] = b1 * value - a1 * output + states[z2Offset + channel];
+				states[z2Offset + channel] = b2 * value - a2 * output;
+				values[offset + channel] = output;
+			}
+		}
+	}
+}
@@ -0,0 +1,310 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A histogram with equal-width bins over a fixed range. Each value's bin is calculated directly from the value, so filling the histogram
+ * is O(n) whatever the number of bins. Large blocks of values are counted in parallel, each fork-join task into its own bin counts, which
+ * are summed at the end.
+ * 
+ * The bins are [lower bound + i * width, lower bound + (i + 1) * width), except that the last bin also includes the upper bound.
+ * Values outside the range are counted as underflows or overflows, and invalid (NaN) values as invalid; all of these are included in the
+ * total count, which the probability densities are calculated with respect to (as MAJFCMaths.probabilityDensityFunction does).
+ * @author mikefedora
+ *
+ */
+public class MAJFCHistogram {
+	private final double mLowerBound;
+	private final double mUpperBound;
+	private final double mBinWidth;
+	private final double mInverseBinWidth;
+	private final long[] mBinCounts;
+	private long mUnderflowCount;
+	private long mOverflowCount;
+	private long mInvalidCount;
+
+	/**
+	 * Constructor
+	 * @param lowerBound The lower bound of the first bin
+	 * @param upperBound The upper bound of the last bin
+	 * @param numberOfBins The number of bins
+	 */
+	public MAJFCHistogram(double lowerBound, double upperBound, int numberOfBins) {
+		mLowerBound = lowerBound;
+		mUpperBound = upperBound;
+		mBinWidth = (upperBound - lowerBound)/numberOfBins;
+		// A zero-width range puts every value in the first bin
+		mInverseBinWidth = mBinWidth > 0 ? 1/mBinWidth : 0;
+		mBinCounts = new long[numberOfBins];
+	}
+	
+	/**
+	 * Makes a histogram spanning the range of a set of values, and fills it with them
+	 * @param values The values
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param numberOfBins The number of bins
+	 * @return The histogram
+	 */
+	public static MAJFCHistogram forValues(double[] values, int offset, int length, int numberOfBins) {
+		double[] maxAndMin = MAJFCParallelMaths.findMaxAndMin(values, offset, length);
+		MAJFCHistogram histogram = new MAJFCHistogram(maxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX], maxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX], numberOfBins);
+		histogram.addAll(values, offset, length);
+		
+		return histogram;
+	}
+	
+	/**
+	 * Adds a value
+	 * @param value The value to add
+	 */
+	public void add(double value) {
+		if (value != value) {
+			++mInvalidCount;
+		} else if (value < mLowerBound) {
+			++mUnderflowCount;
+		} else if (value > mUpperBound) {
+			++mOverflowCount;
+		} else {
+			++mBinCounts[binIndex(value, mLowerBound, mInverseBinWidth, mBinCounts.length - 1)];
+		}
+	}
+	
+	/**
+	 * Adds a block of values, counting them in parallel if there are more than MAJFCParallelMaths.PARALLEL_THRESHOLD of them
+	 * @param values The values to add from
+	 * @param offset The index of the first value to add
+	 * @param length The number of values to add
+	 */
+	public void addAll(double[] values, int offset, int length) {
+		long[] counts;
+		
+		if (length < MAJFCParallelMaths.PARALLEL_THRESHOLD) {
+			counts = new CountTask(values, offset, length, this).computeLeaf();
+		} else {
+			counts = ForkJoinPool.commonPool().invoke(new CountTask(values, offset, length, this));
+		}
+		
+		mergeCounts(counts);
+	}
+	
+	/**
+	 * Merges another histogram with the same bins into this one. The other histogram is not changed.
+	 * @param other The histogram to merge in
+	 * @return False (and this histogram is not changed) if the histograms' bins are different
+	 */
+	public boolean merge(MAJFCHistogram other) {
+		if (other.mLowerBound != mLowerBound || other.mUpperBound != mUpperBound || other.mBinCounts.length != mBinCounts.length) {
+			return false;
+		}
+		
+		for (int bin = 0; bin < mBinCounts.length; ++bin) {
+			mBinCounts[bin] += other.mBinCounts[bin];
+		}
+		
+		mUnderflowCount += other.mUnderflowCount;
+		mOverflowCount += other.mOverflowCount;
+		mInvalidCount += other.mInvalidCount;
+		
+		return true;
+	}
+	
+	/**
+	 * @return The number of bins
+	 */
+	public int getNumberOfBins() {
+		return mBinCounts.length;
+	}
+	
+	/**
+	 * @return The width of each bin
+	 */
+	public double getBinWidth() {
+		return mBinWidth;
+	}
+	
+	/**
+	 * @param bin The bin index
+	 * @return The value at the centre of the bin
+	 */
+	public double getBinCentre(int bin) {
+		return mLowerBound + (bin + 0.5) * mBinWidth;
+	}
+	
+	/**
+	 * @param bin The bin index
+	 * @return The number of values in the bin
+	 */
+	public long getBinCount(int bin) {
+		return mBinCounts[bin];
+	}
+	
+	/**
+	 * @return A copy of the bin counts
+	 */
+	public long[] getBinCounts() {
+		return mBinCounts.clone();
+	}
+	
+	/**
+	 * @return The number of values below the lower bound
+	 */
+	public long getUnderflowCount() {
+		return mUnderflowCount;
+	}
+	
+	/**
+	 * @return The number of values above the upper bound
+	 */
+	public long getOverflowCount() {
+		return mOverflowCount;
+	}
+	
+	/**
+	 * @return The number of invalid (NaN) values
+	 */
+	public long getInvalidCount() {
+		return mInvalidCount;
+	}
+	
+	/**
+	 * @return The total number of values added, including underflows, overflows and invalid values
+	 */
+	public long getTotalCount() {
+		long totalCount = mUnderflowCount + mOverflowCount + mInvalidCount;
+		
+		for (int bin = 0; bin < mBinCounts.length; ++bin) {
+			totalCount += mBinCounts[bin];
+		}
+		
+		return totalCount;
+	}
+	
+	/**
+	 * Calculates the probability density in each bin, i.e. the fraction of all values added which fall in the bin, divided by the bin width
+	 * @param densities The array to write the densities into, or null to allocate one
+	 * @return The probability densities
+	 */
+	public double[] getProbabilityDensities(double[] densities) {
+		int numberOfBins = mBinCounts.length;
+		
+		if (densities == null) {
+			densities = new double[numberOfBins];
+		}
+		
+		double scaleFactor = 1/(getTotalCount() * mBinWidth);
+		
+		for (int bin = 0; bin < numberOfBins; ++bin) {
+			densities[bin] = scaleFactor * mBinCounts[bin];
+		}
+		
+		return densities;
+	}
+	
+	/**
+	 * Makes a probability density function in the form returned by MAJFCMaths.probabilityDensityFunction
+	 * @param normalize If true, the pdf is normalized to give an integral of 1 over the whole value range
+	 * @return A list of arrays containing value and occurrence count pairs, value in [0], occurrence count in [1]
+	 */
+	public LinkedList<Double[]> toPDF(boolean normalize) {
+		return MAJFCMaths.makePDF(mBinCounts, mLowerBound, mBinWidth, getTotalCount(), normalize);
+	}
+	
+	private void mergeCounts(long[] counts) {
+		int numberOfBins = mBinCounts.length;
+		
+		for (int bin = 0; bin < numberOfBins; ++bin) {
+			mBinCounts[bin] += counts[bin];
+		}
+		
+		mUnderflowCount += counts[numberOfBins + CountTask.UNDERFLOW_OFFSET];
+		mOverflowCount += counts[numberOfBins + CountTask.OVERFLOW_OFFSET];
+		mInvalidCount += counts[numberOfBins + CountTask.INVALID_OFFSET];
+	}
+	
+	/**
+	 * @return The bin for an in-range value. The upper bound, and any value rounding up to the bin above it, go in the last bin.
+	 */
+	static int binIndex(double value, double lowerBound, double inverseBinWidth, int lastBin) {
+		int bin = (int) ((value - lowerBound) * inverseBinWidth);
+		
+		return bin > lastBin ? lastBin : bin;
+	}
+	
+	/**
+	 * Counts values into private bins, followed by underflow, overflow and invalid counts
+	 */
+	@SuppressWarnings("serial")
+	private static class CountTask extends MAJFCParallelMaths.RangeTask<long[]> {
+		private static final int UNDERFLOW_OFFSET = 0;
+		private static final int OVERFLOW_OFFSET = 1;
+		private static final int INVALID_OFFSET = 2;
+		
+		private final double[] mData;
+		private final MAJFCHistogram mHistogram;
+		
+		private CountTask(double[] data, int offset, int length, MAJFCHistogram histogram) {
+			super(offset, length);
+			mData = data;
+			mHistogram = histogram;
+		}
+
+		@Override
+		protected MAJFCParallelMaths.RangeTask<long[]> makeSubtask(int offset, int length) {
+			return new CountTask(mData, offset, length, mHistogram);
+		}
+
+		@Override
+		protected long[] computeLeaf() {
+			int numberOfBins = mHistogram.mBinCounts.length;
+			long[] counts = new long[numberOfBins + 3];
+			double lowerBound = mHistogram.mLowerBound;
+			double upperBound = mHistogram.mUpperBound;
+			double inverseBinWidth = mHistogram.mInverseBinWidth;
+			int lastBin = numberOfBins - 1;
+			int end = mOffset + mLength;
+			
+			for (int i = mOffset; i < end; ++i) {
+				double value = mData[i];
+				
+				if (value >= lowerBound && value <= upperBound) {
+					++counts[binIndex(value, lowerBound, inverseBinWidth, lastBin)];
+				} else if (value < lowerBound) {
+					++counts[numberOfBins + UNDERFLOW_OFFSET];
+				} else if (value > upperBound) {
+					++counts[numberOfBins + OVERFLOW_OFFSET];
+				} else {
+					++counts[numberOfBins + INVALID_OFFSET];
+				}
+			}
+			
+			return counts;
+		}
+
+		@Override
+		protected long[] combine(long[] first, long[] second) {
+			for (int i = 0; i < first.length; ++i) {
+				first[i] += second[i];
+			}
+			
+			return first;
+		}
+	}
+}
@@ -0,0 +1,225 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * Numerical integration of sampled functions held in primitive arrays. Nothing is allocated (if an output array is given, for the methods
+ * which take one), and the inner loops are simple enough for the JIT compiler to unroll and vectorise.
+ * @author mikefedora
+ *
+ */
+public class MAJFCIntegration {
+	/**
+	 * Integrates equally spaced samples by the trapezoidal rule
+	 * @param y The sample values
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param dx The spacing of the samples
+	 * @return The integral, or 0 if there are fewer than two samples
+	 */
+	public static double trapezoid(double[] y, int offset, int length, double dx) {
+		if (length < 2) {
+			return 0;
+		}
+		
+		int last = offset + length - 1;
+		double sum = 0;
+		
+		for (int i = offset + 1; i < last; ++i) {
+			sum += y[i];
+		}
+		
+		return dx * (sum + 0.5 * (y[offset] + y[last]));
+	}
+	
+	/**
+	 * Integrates samples at arbitrary (ordered) positions by the trapezoidal rule
+	 * @param y The sample values
+	 * @param x The sample positions
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @return The integral, or 0 if there are fewer than two samples
+	 */
+	public static double trapezoid(double[] y, double[] x, int offset, int length) {
+		int end = offset + length;
+		double sum = 0;
+		
+		for (int i = offset + 1; i < end; ++i) {
+			sum += (y[i - 1] + y[i]) * (x[i] - x[i - 1]);
+		}
+		
+		return 0.5 * sum;
+	}
+	
+	/**
+	 * Calculates the running integral of equally spaced samples by the trapezoidal rule
+	 * @param y The sample values
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param dx The spacing of the samples
+	 * @param output The array to write the integral up to each sample into (the first value written is 0). This may be y, with the same offset.
+	 * @param outputOffset The index in output to write the first value to
+	 * @return output
+	 */
+	public static double[] cumulativeTrapezoid(double[] y, int offset, int length, double dx, double[] output, int outputOffset) {
+		if (length < 1) {
+			return output;
+		}
+		
+		double halfDx = 0.5 * dx;
+		double previous = y[offset];
+		double integral = 0;
+		
+		output[outputOffset] = 0;
+		
+		for (int i = 1; i < length; ++i) {
+			double current = y[offset + i];
+			integral += halfDx * (previous + current);
+			output[outputOffset + i] = integral;
+			previous = current;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates the running integral of samples at arbitrary (ordered) positions by the trapezoidal rule
+	 * @param y The sample values
+	 * @param x The sample positions
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param output The array to write the integral up to each sample into (the first value written is 0). This may be y, with the same offset.
+	 * @param outputOffset The index in output to write the first value to
+	 * @return output
+	 */
+	public static double[] cumulativeTrapezoid(double[] y, double[] x, int offset, int length, double[] output, int outputOffset) {
+		if (length < 1) {
+			return output;
+		}
+		
+		double previous = y[offset];
+		double integral = 0;
+		
+		output[outputOffset] = 0;
+		
+		for (int i = 1; i < length; ++i) {
+			double current = y[offset + i];
+			integral += 0.5 * (previous + current) * (x[offset + i] - x[offset + i - 1]);
+			output[outputOffset + i] = integral;
+			previous = current;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Integrates equally spaced samples by the composite Simpson's rule. If there is an odd number of intervals (an even number of samples),
+	 * the last interval is integrated with the quadratic through the last three samples.
+	 * @param y The sample values
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param dx The spacing of the samples
+	 * @return The integral, or 0 if there are fewer than two samples
+	 */
+	public static double simpson(double[] y, int offset, int length, double dx) {
+		if (length < 3) {
+			return trapezoid(y, offset, length, dx);
+		}
+		
+		// The Simpson's rule part covers an odd number of samples
+		int simpsonLength = (length & 1) == 1 ? length : length - 1;
+		int last = offset + simpsonLength - 1;
+		double oddSum = 0;
+		double evenSum = 0;
+		
+		for (int i = offset + 1; i < last; i += 2) {
+			oddSum += y[i];
+			evenSum += y[i + 1];
+		}
+		
+		// The loop included the last sample in the even sum
+		double integral = dx/3 * (y[offset] - y[last] + 4 * oddSum + 2 * evenSum);
+		
+		if (simpsonLength < length) {
+			integral += dx/12 * (5 * y[last + 1] + 8 * y[last] - y[last - 1]);
+		}
+		
+		return integral;
+	}
+	
+	/**
+	 * Integrates bin-centred values (such as a histogram) exactly by treating them as constant across each bin (the midpoint rule)
+	 * @param y The bin values
+	 * @param offset The index of the first bin to use
+	 * @param length The number of bins to use
+	 * @param dx The width of the bins
+	 * @return The integral
+	 */
+	public static double midpoint(double[] y, int offset, int length, double dx) {
+		int end = offset + length;
+		double sum = 0;
+		
+		for (int i = offset; i < end; ++i) {
+			sum += y[i];
+		}
+		
+		return dx * sum;
+	}
+	
+	/**
+	 * Integrates each of a set of rows of equally spaced samples by the trapezoidal rule
+	 * @param rows The rows of samples
+	 * @param offset The index of the first sample to use in each row
+	 * @param length The number of samples to use in each row
+	 * @param dx The spacing of the samples
+	 * @param output The array to write each row's integral into, or null to allocate one
+	 * @return The integrals
+	 */
+	public static double[] trapezoidRows(double[][] rows, int offset, int length, double dx, double[] output) {
+		if (output == null) {
+			output = new double[rows.length];
+		}
+		
+		for (int row = 0; row < rows.length; ++row) {
+			output[row] = trapezoid(rows[row], offset, length, dx);
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Integrates each of a set of rows of equally spaced samples by the composite Simpson's rule
+	 * @param rows The rows of samples
+	 * @param offset The index of the first sample to use in each row
+	 * @param length The number of samples to use in each row
+	 * @param dx The spacing of the samples
+	 * @param output The array to write each row's integral into, or null to allocate one
+	 * @return The integrals
+	 * @see #simpson(double[], int, int, double)
+	 */
+	public static double[] simpsonRows(double[][] rows, int offset, int length, double dx, double[] output) {
+		if (output == null) {
+			output = new double[rows.length];
+		}
+		
+		for (int row = 0; row < rows.length; ++row) {
+			output[row] = simpson(rows[row], offset, length, dx);
+		}
+		
+		return output;
+	}
+}
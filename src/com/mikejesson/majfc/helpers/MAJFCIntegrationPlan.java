@@ -0,0 +1,198 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.mikejesson.majfc.helpers.MAJFCTools.MAJFCToolsException;
+
+/**
+ * A precalculated integral average over a fixed line of points (e.g. the probe positions of a set of profiles). The weight of each
+ * point is calculated once, from the same rule as MAJFCMaths.integralAverage (the trapezoidal rule between points, with constant
+ * values between the bounds and the outermost points), so each integral average is then a single dot product.
+ * @author mikefedora
+ *
+ */
+public class MAJFCIntegrationPlan {
+	private final double[] mWeights;
+	private final double mRange;
+
+	/**
+	 * Constructor
+	 * @param points The ordered positions of the points at which the values will lie, starting with the closest to pointsLowerBound
+	 * @param pointsLowerBound The lower bound for the points (this must not be greater than the first point)
+	 * @param pointsUpperBound The upper bound for the points (this must not be less than the last point)
+	 * @throws MAJFCToolsException If the bounds are invalid
+	 */
+	public MAJFCIntegrationPlan(double[] points, double pointsLowerBound, double pointsUpperBound) throws MAJFCToolsException {
+		int numberOfPoints = points.length;
+		
+		if (numberOfPoints < 1 || points[0] < pointsLowerBound || points[numberOfPoints - 1] > pointsUpperBound) {
+			throw new MAJFCToolsException("Invalid integration plan bounds");
+		}
+		
+		mRange = pointsUpperBound - pointsLowerBound;
+		mWeights = new double[numberOfPoints];
+		
+		// Each point's weight is the width of the cell around it, divided by the whole range
+		for (int i = 0; i < numberOfPoints; ++i) {
+			double cellStart = i == 0 ? pointsLowerBound : 0.5 * (points[i - 1] + points[i]);
+			double cellEnd = i == numberOfPoints - 1 ? pointsUpperBound : 0.5 * (points[i] + points[i + 1]);
+			mWeights[i] = (cellEnd - cellStart)/mRange;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param points The ordered positions of the points at which the values will lie, starting with the closest to pointsLowerBound
+	 * @param pointsLowerBound The lower bound for the points (this must not be greater than the first point)
+	 * @param pointsUpperBound The upper bound for the points (this must not be less than the last point)
+	 * @throws MAJFCToolsException If the bounds are invalid
+	 */
+	public MAJFCIntegrationPlan(List<Integer> points, int pointsLowerBound, int pointsUpperBound) throws MAJFCToolsException {
+		this(toPrimitivePoints(points), pointsLowerBound, pointsUpperBound);
+	}
+	
+	/**
+	 * @return The number of points
+	 */
+	public int getNumberOfPoints() {
+		return mWeights.length;
+	}
+	
+	/**
+	 * @return A copy of the weight of each point in the integral average
+	 */
+	public double[] getWeights() {
+		return mWeights.clone();
+	}
+	
+	/**
+	 * Calculates the integral average of a set of values at the plan's points
+	 * @param values The values
+	 * @param offset The index of the value at the first point
+	 * @return The integral average
+	 */
+	public double integralAverage(double[] values, int offset) {
+		double[] weights = mWeights;
+		double sum = 0;
+		
+		for (int i = 0; i < weights.length; ++i) {
+			sum += weights[i] * values[offset + i];
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * Calculates the integral average of a set of values at the plan's points
+	 * @param values The values
+	 * @return The integral average, or Double.NaN if the number of values is not the number of points
+	 */
+	public double integralAverage(List<Double> values) {
+		if (values.size() != mWeights.length) {
+			return Double.NaN;
+		}
+		
+		return integralAverage(MAJFCMaths.toPrimitiveArray(values, mWeights.length), 0);
+	}
+	
+	/**
+	 * Calculates the integral of a set of values at the plan's points over the whole range
+	 * @param values The values
+	 * @param offset The index of the value at the first point
+	 * @return The integral
+	 */
+	public double integral(double[] values, int offset) {
+		return mRange * integralAverage(values, offset);
+	}
+	
+	/**
+	 * Calculates the integral averages of many sets of values at the plan's points, in parallel if there are enough of them
+	 * @param valueSets The sets of values, each holding a value for each point from index 0
+	 * @param output The array to write the integral averages into, or null to allocate one
+	 * @return The integral averages
+	 */
+	public double[] integralAverages(double[][] valueSets, double[] output) {
+		if (output == null) {
+			output = new double[valueSets.length];
+		}
+		
+		BatchTask task = new BatchTask(this, valueSets, output, 0, valueSets.length);
+		
+		if ((long) valueSets.length * mWeights.length < MAJFCParallelMaths.PARALLEL_THRESHOLD) {
+			task.computeDirectly();
+		} else {
+			ForkJoinPool.commonPool().invoke(task);
+		}
+		
+		return output;
+	}
+	
+	private static double[] toPrimitivePoints(List<Integer> points) {
+		double[] primitivePoints = new double[points.size()];
+		int i = 0;
+		
+		for (Integer point : points) {
+			primitivePoints[i++] = point;
+		}
+		
+		return primitivePoints;
+	}
+	
+	/**
+	 * Integrates a range of the value sets, splitting it until each task has about MAJFCParallelMaths.LEAF_LENGTH values to process
+	 */
+	@SuppressWarnings("serial")
+	private static class BatchTask extends RecursiveAction {
+		private final MAJFCIntegrationPlan mPlan;
+		private final double[][] mValueSets;
+		private final double[] mOutput;
+		private final int mFirstSet;
+		private final int mNumberOfSets;
+		
+		private BatchTask(MAJFCIntegrationPlan plan, double[][] valueSets, double[] output, int firstSet, int numberOfSets) {
+			mPlan = plan;
+			mValueSets = valueSets;
+			mOutput = output;
+			mFirstSet = firstSet;
+			mNumberOfSets = numberOfSets;
+		}
+		
+		@Override
+		protected void compute() {
+			if (mNumberOfSets < 2 || (long) mNumberOfSets * mPlan.mWeights.length <= MAJFCParallelMaths.LEAF_LENGTH) {
+				computeDirectly();
+				return;
+			}
+			
+			int halfNumberOfSets = mNumberOfSets/2;
+			invokeAll(new BatchTask(mPlan, mValueSets, mOutput, mFirstSet, halfNumberOfSets),
+					new BatchTask(mPlan, mValueSets, mOutput, mFirstSet + halfNumberOfSets, mNumberOfSets - halfNumberOfSets));
+		}
+		
+		private void computeDirectly() {
+			int end = mFirstSet + mNumberOfSets;
+			
+			for (int set = mFirstSet; set < end; ++set) {
+				mOutput[set] = mPlan.integralAverage(mValueSets[set], 0);
+			}
+		}
+	}
+}
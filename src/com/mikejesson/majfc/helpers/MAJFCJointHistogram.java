@@ -0,0 +1,474 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A two-dimensional histogram (joint probability density) of pairs of values, e.g. the u' and w' velocity fluctuations at the same
+ * sample times, with equal-width bins in each direction. Each pair's bin is calculated directly from its values, and large blocks of
+ * pairs are counted in parallel, each fork-join task into its own histogram, which are merged at the end.
+ * 
+ * The histogram can also carry out a quadrant analysis in the same pass (see Lu S.S. and Willmarth W.W. (1973), "Measurements of the
+ * structure of the Reynolds stress in a turbulent boundary layer"). The pairs are split into quadrants about an origin (normally the
+ * means), and for each of a set of hole sizes H the sum and number of the products x'y' in each quadrant with |x'y'| >= H * sigma_x * sigma_y
+ * are accumulated. Every valid pair contributes to the quadrant analysis, whether or not it lies within the histogram's range.
+ * 
+ * Pairs in which either value is invalid (NaN) are counted as invalid. Densities are calculated with respect to the total number of
+ * pairs, as for MAJFCHistogram.
+ * @author mikefedora
+ *
+ */
+public class MAJFCJointHistogram {
+	/**
+	 * Quadrant 1: x' > 0, y' > 0 (outward interactions for u' and w')
+	 */
+	public static final int QUADRANT_OUTWARD_INTERACTION = 0;
+	/**
+	 * Quadrant 2: x' < 0, y' > 0 (ejections for u' and w')
+	 */
+	public static final int QUADRANT_EJECTION = 1;
+	/**
+	 * Quadrant 3: x' < 0, y' < 0 (inward interactions for u' and w')
+	 */
+	public static final int QUADRANT_INWARD_INTERACTION = 2;
+	/**
+	 * Quadrant 4: x' > 0, y' < 0 (sweeps for u' and w')
+	 */
+	public static final int QUADRANT_SWEEP = 3;
+	public static final int NUMBER_OF_QUADRANTS = 4;
+	
+	private final double mXLowerBound;
+	private final double mXUpperBound;
+	private final double mXBinWidth;
+	private final double mXInverseBinWidth;
+	private final int mNumberOfXBins;
+	private final double mYLowerBound;
+	private final double mYUpperBound;
+	private final double mYBinWidth;
+	private final double mYInverseBinWidth;
+	private final int mNumberOfYBins;
+	private final long[] mBinCounts;
+	private long mOutOfRangeCount;
+	private long mInvalidCount;
+	
+	private final double mXOrigin;
+	private final double mYOrigin;
+	private final double[] mHoleSizes;
+	private final double[] mHoleThresholds;
+	private final double[] mQuadrantProductSums;
+	private final long[] mQuadrantCounts;
+	private double mProductSum;
+
+	/**
+	 * Constructor for a histogram without quadrant analysis
+	 * @param xLowerBound The lower bound of the first x bin
+	 * @param xUpperBound The upper bound of the last x bin
+	 * @param numberOfXBins The number of x bins
+	 * @param yLowerBound The lower bound of the first y bin
+	 * @param yUpperBound The upper bound of the last y bin
+	 * @param numberOfYBins The number of y bins
+	 */
+	public MAJFCJointHistogram(double xLowerBound, double xUpperBound, int numberOfXBins, double yLowerBound, double yUpperBound, int numberOfYBins) {
+		this(xLowerBound, xUpperBound, numberOfXBins, yLowerBound, yUpperBound, numberOfYBins, 0, 0, 0, 0, new double[0]);
+	}
+	
+	/**
+	 * Constructor for a histogram with quadrant analysis
+	 * @param xLowerBound The lower bound of the first x bin
+	 * @param xUpperBound The upper bound of the last x bin
+	 * @param numberOfXBins The number of x bins
+	 * @param yLowerBound The lower bound of the first y bin
+	 * @param yUpperBound The upper bound of the last y bin
+	 * @param numberOfYBins The number of y bins
+	 * @param xOrigin The x value about which the quadrants are defined (normally the mean)
+	 * @param yOrigin The y value about which the quadrants are defined (normally the mean)
+	 * @param xStandardDeviation The standard deviation of x, used to scale the hole sizes
+	 * @param yStandardDeviation The standard deviation of y, used to scale the hole sizes
+	 * @param holeSizes The hole sizes, H
+	 */
+	public MAJFCJointHistogram(double xLowerBound, double xUpperBound, int numberOfXBins, double yLowerBound, double yUpperBound, int numberOfYBins,
+			double xOrigin, double yOrigin, double xStandardDeviation, double yStandardDeviation, double[] holeSizes) {
+		mXLowerBound = xLowerBound;
+		mXUpperBound = xUpperBound;
+		mNumberOfXBins = numberOfXBins;
+		mXBinWidth = (xUpperBound - xLowerBound)/numberOfXBins;
+		mXInverseBinWidth = mXBinWidth > 0 ? 1/mXBinWidth : 0;
+		mYLowerBound = yLowerBound;
+		mYUpperBound = yUpperBound;
+		mNumberOfYBins = numberOfYBins;
+		mYBinWidth = (yUpperBound - yLowerBound)/numberOfYBins;
+		mYInverseBinWidth = mYBinWidth > 0 ? 1/mYBinWidth : 0;
+		mBinCounts = new long[numberOfXBins * numberOfYBins];
+		
+		mXOrigin = xOrigin;
+		mYOrigin = yOrigin;
+		mHoleSizes = holeSizes.clone();
+		mHoleThresholds = new double[holeSizes.length];
+		
+		for (int hole = 0; hole < holeSizes.length; ++hole) {
+			mHoleThresholds[hole] = holeSizes[hole] * xStandardDeviation * yStandardDeviation;
+		}
+		
+		mQuadrantProductSums = new double[NUMBER_OF_QUADRANTS * holeSizes.length];
+		mQuadrantCounts = new long[NUMBER_OF_QUADRANTS * holeSizes.length];
+	}
+	
+	/**
+	 * Makes an empty histogram with the same bins, origin and hole sizes as another
+	 */
+	private MAJFCJointHistogram(MAJFCJointHistogram template) {
+		mXLowerBound = template.mXLowerBound;
+		mXUpperBound = template.mXUpperBound;
+		mNumberOfXBins = template.mNumberOfXBins;
+		mXBinWidth = template.mXBinWidth;
+		mXInverseBinWidth = template.mXInverseBinWidth;
+		mYLowerBound = template.mYLowerBound;
+		mYUpperBound = template.mYUpperBound;
+		mNumberOfYBins = template.mNumberOfYBins;
+		mYBinWidth = template.mYBinWidth;
+		mYInverseBinWidth = template.mYInverseBinWidth;
+		mBinCounts = new long[template.mBinCounts.length];
+		
+		mXOrigin = template.mXOrigin;
+		mYOrigin = template.mYOrigin;
+		mHoleSizes = template.mHoleSizes;
+		mHoleThresholds = template.mHoleThresholds;
+		mQuadrantProductSums = new double[template.mQuadrantProductSums.length];
+		mQuadrantCounts = new long[template.mQuadrantCounts.length];
+	}
+	
+	/**
+	 * Makes a histogram spanning the ranges of two sets of values, and fills it with them
+	 * @param xValues The x values
+	 * @param yValues The y values, sampled at the same times as the x values
+	 * @param offset The index of the first pair to use
+	 * @param length The number of pairs to use
+	 * @param numberOfXBins The number of x bins
+	 * @param numberOfYBins The number of y bins
+	 * @return The histogram
+	 */
+	public static MAJFCJointHistogram forValues(double[] xValues, double[] yValues, int offset, int length, int numberOfXBins, int numberOfYBins) {
+		double[] xMaxAndMin = MAJFCParallelMaths.findMaxAndMin(xValues, offset, length);
+		double[] yMaxAndMin = MAJFCParallelMaths.findMaxAndMin(yValues, offset, length);
+		MAJFCJointHistogram histogram = new MAJFCJointHistogram(xMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX], xMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX], numberOfXBins,
+				yMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX], yMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX], numberOfYBins);
+		histogram.addAll(xValues, yValues, offset, length);
+		
+		return histogram;
+	}
+	
+	/**
+	 * Carries out a quadrant analysis of two sets of values. The joint histogram of the values spans their ranges, and the quadrants are
+	 * defined about the means of the pairs in which both values are valid.
+	 * @param xValues The x values (e.g. u)
+	 * @param yValues The y values (e.g. w), sampled at the same times as the x values
+	 * @param offset The index of the first pair to use
+	 * @param length The number of pairs to use
+	 * @param numberOfXBins The number of x bins
+	 * @param numberOfYBins The number of y bins
+	 * @param holeSizes The hole sizes, H
+	 * @return The histogram, with quadrant analysis
+	 */
+	public static MAJFCJointHistogram quadrantAnalysis(double[] xValues, double[] yValues, int offset, int length, int numberOfXBins, int numberOfYBins, double[] holeSizes) {
+		MAJFCCovarianceMatrix covarianceMatrix = MAJFCCovarianceMatrix.calculate(new double[][] { xValues, yValues }, offset, length);
+		double[] xMaxAndMin = MAJFCParallelMaths.findMaxAndMin(xValues, offset, length);
+		double[] yMaxAndMin = MAJFCParallelMaths.findMaxAndMin(yValues, offset, length);
+		MAJFCJointHistogram histogram = new MAJFCJointHistogram(xMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX], xMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX], numberOfXBins,
+				yMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX], yMaxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX], numberOfYBins,
+				covarianceMatrix.getMean(0), covarianceMatrix.getMean(1), covarianceMatrix.getStandardDeviation(0), covarianceMatrix.getStandardDeviation(1), holeSizes);
+		histogram.addAll(xValues, yValues, offset, length);
+		
+		return histogram;
+	}
+	
+	/**
+	 * Adds a pair of values
+	 * @param x The x value
+	 * @param y The y value
+	 */
+	public void add(double x, double y) {
+		if (x != x || y != y) {
+			++mInvalidCount;
+			return;
+		}
+		
+		if (x >= mXLowerBound && x <= mXUpperBound && y >= mYLowerBound && y <= mYUpperBound) {
+			++mBinCounts[binIndex(x, y)];
+		} else {
+			++mOutOfRangeCount;
+		}
+		
+		if (mHoleSizes.length > 0) {
+			addToQuadrants(x - mXOrigin, y - mYOrigin);
+		}
+	}
+	
+	/**
+	 * Adds a block of pairs of values, counting them in parallel if there are more than MAJFCParallelMaths.PARALLEL_THRESHOLD of them
+	 * @param xValues The x values to add from
+	 * @param yValues The y values to add from
+	 * @param offset The index of the first pair to add
+	 * @param length The number of pairs to add
+	 */
+	public void addAll(double[] xValues, double[] yValues, int offset, int length) {
+		CountTask task = new CountTask(xValues, yValues, offset, length, this);
+		
+		if (length < MAJFCParallelMaths.PARALLEL_THRESHOLD) {
+			merge(task.computeLeaf());
+		} else {
+			merge(ForkJoinPool.commonPool().invoke(task));
+		}
+	}
+	
+	/**
+	 * Merges another histogram with the same bins, origin and hole sizes into this one. The other histogram is not changed.
+	 * @param other The histogram to merge in
+	 * @return False (and this histogram is not changed) if the histograms are not compatible
+	 */
+	public boolean merge(MAJFCJointHistogram other) {
+		if (other.mXLowerBound != mXLowerBound || other.mXUpperBound != mXUpperBound || other.mNumberOfXBins != mNumberOfXBins ||
+				other.mYLowerBound != mYLowerBound || other.mYUpperBound != mYUpperBound || other.mNumberOfYBins != mNumberOfYBins ||
+				other.mXOrigin != mXOrigin || other.mYOrigin != mYOrigin || !Arrays.equals(other.mHoleThresholds, mHoleThresholds)) {
+			return false;
+		}
+		
+		for (int bin = 0; bin < mBinCounts.length; ++bin) {
+			mBinCounts[bin] += other.mBinCounts[bin];
+		}
+		
+		for (int i = 0; i < mQuadrantCounts.length; ++i) {
+			mQuadrantProductSums[i] += other.mQuadrantProductSums[i];
+			mQuadrantCounts[i] += other.mQuadrantCounts[i];
+		}
+		
+		mOutOfRangeCount += other.mOutOfRangeCount;
+		mInvalidCount += other.mInvalidCount;
+		mProductSum += other.mProductSum;
+		
+		return true;
+	}
+	
+	/**
+	 * @return The number of x bins
+	 */
+	public int getNumberOfXBins() {
+		return mNumberOfXBins;
+	}
+	
+	/**
+	 * @return The number of y bins
+	 */
+	public int getNumberOfYBins() {
+		return mNumberOfYBins;
+	}
+	
+	/**
+	 * @param xBin The x bin index
+	 * @return The x value at the centre of the bin
+	 */
+	public double getXBinCentre(int xBin) {
+		return mXLowerBound + (xBin + 0.5) * mXBinWidth;
+	}
+	
+	/**
+	 * @param yBin The y bin index
+	 * @return The y value at the centre of the bin
+	 */
+	public double getYBinCentre(int yBin) {
+		return mYLowerBound + (yBin + 0.5) * mYBinWidth;
+	}
+	
+	/**
+	 * @param xBin The x bin index
+	 * @param yBin The y bin index
+	 * @return The number of pairs in the bin
+	 */
+	public long getBinCount(int xBin, int yBin) {
+		return mBinCounts[xBin * mNumberOfYBins + yBin];
+	}
+	
+	/**
+	 * @return The number of valid pairs outside the histogram's range
+	 */
+	public long getOutOfRangeCount() {
+		return mOutOfRangeCount;
+	}
+	
+	/**
+	 * @return The number of pairs in which either value is invalid (NaN)
+	 */
+	public long getInvalidCount() {
+		return mInvalidCount;
+	}
+	
+	/**
+	 * @return The number of valid pairs
+	 */
+	public long getValidCount() {
+		long validCount = mOutOfRangeCount;
+		
+		for (int bin = 0; bin < mBinCounts.length; ++bin) {
+			validCount += mBinCounts[bin];
+		}
+		
+		return validCount;
+	}
+	
+	/**
+	 * @return The total number of pairs added, including out of range and invalid ones
+	 */
+	public long getTotalCount() {
+		return getValidCount() + mInvalidCount;
+	}
+	
+	/**
+	 * Calculates the joint probability density in each bin, i.e. the fraction of all pairs added which fall in the bin, divided by the bin area
+	 * @return The joint probability densities, indexed [x bin][y bin]
+	 */
+	public double[][] getJointProbabilityDensities() {
+		double[][] densities = new double[mNumberOfXBins][mNumberOfYBins];
+		double scaleFactor = 1/(getTotalCount() * mXBinWidth * mYBinWidth);
+		
+		for (int xBin = 0; xBin < mNumberOfXBins; ++xBin) {
+			double[] row = densities[xBin];
+			int rowStart = xBin * mNumberOfYBins;
+			
+			for (int yBin = 0; yBin < mNumberOfYBins; ++yBin) {
+				row[yBin] = scaleFactor * mBinCounts[rowStart + yBin];
+			}
+		}
+		
+		return densities;
+	}
+	
+	/**
+	 * @return The hole sizes used for the quadrant analysis
+	 */
+	public double[] getHoleSizes() {
+		return mHoleSizes.clone();
+	}
+	
+	/**
+	 * @return The mean of the products x'y' of the valid pairs about the quadrant origin, i.e. the covariance (the Reynolds shear stress
+	 * for u' and w', without the density and sign) when the origin is the mean. NaN if the histogram has no quadrant analysis (no hole
+	 * sizes), since the products are then not accumulated.
+	 */
+	public double getMeanProduct() {
+		if (mHoleSizes.length == 0) {
+			return Double.NaN;
+		}
+		
+		return mProductSum/getValidCount();
+	}
+	
+	/**
+	 * @param quadrant The quadrant, e.g. QUADRANT_EJECTION
+	 * @param holeIndex The index of the hole size
+	 * @return The fraction of the total x'y' contributed by the pairs in the quadrant outside the hole
+	 */
+	public double getStressFraction(int quadrant, int holeIndex) {
+		return mQuadrantProductSums[holeIndex * NUMBER_OF_QUADRANTS + quadrant]/mProductSum;
+	}
+	
+	/**
+	 * @param quadrant The quadrant, e.g. QUADRANT_EJECTION
+	 * @param holeIndex The index of the hole size
+	 * @return The fraction of the valid pairs (i.e. of the time) which are in the quadrant outside the hole
+	 */
+	public double getTimeFraction(int quadrant, int holeIndex) {
+		return (double) mQuadrantCounts[holeIndex * NUMBER_OF_QUADRANTS + quadrant]/getValidCount();
+	}
+	
+	/**
+	 * @param quadrant The quadrant, e.g. QUADRANT_EJECTION
+	 * @param holeIndex The index of the hole size
+	 * @return The mean x'y' of the pairs in the quadrant outside the hole, i.e. the conditional stress, as a fraction of the mean x'y' of all pairs
+	 */
+	public double getConditionalStressFraction(int quadrant, int holeIndex) {
+		return getStressFraction(quadrant, holeIndex)/getTimeFraction(quadrant, holeIndex);
+	}
+	
+	private int binIndex(double x, double y) {
+		return MAJFCHistogram.binIndex(x, mXLowerBound, mXInverseBinWidth, mNumberOfXBins - 1) * mNumberOfYBins
+				+ MAJFCHistogram.binIndex(y, mYLowerBound, mYInverseBinWidth, mNumberOfYBins - 1);
+	}
+	
+	private void addToQuadrants(double xFluctuation, double yFluctuation) {
+		double product = xFluctuation * yFluctuation;
+		double absoluteProduct = Math.abs(product);
+		int quadrant;
+		
+		if (yFluctuation >= 0) {
+			quadrant = xFluctuation >= 0 ? QUADRANT_OUTWARD_INTERACTION : QUADRANT_EJECTION;
+		} else {
+			quadrant = xFluctuation < 0 ? QUADRANT_INWARD_INTERACTION : QUADRANT_SWEEP;
+		}
+		
+		mProductSum += product;
+		
+		for (int hole = 0; hole < mHoleThresholds.length; ++hole) {
+			if (absoluteProduct >= mHoleThresholds[hole]) {
+				int index = hole * NUMBER_OF_QUADRANTS + quadrant;
+				mQuadrantProductSums[index] += product;
+				++mQuadrantCounts[index];
+			}
+		}
+	}
+	
+	/**
+	 * Counts pairs into a private histogram
+	 */
+	@SuppressWarnings("serial")
+	private static class CountTask extends MAJFCParallelMaths.RangeTask<MAJFCJointHistogram> {
+		private final double[] mXData;
+		private final double[] mYData;
+		private final MAJFCJointHistogram mTemplate;
+		
+		private CountTask(double[] xData, double[] yData, int offset, int length, MAJFCJointHistogram template) {
+			super(offset, length);
+			mXData = xData;
+			mYData = yData;
+			mTemplate = template;
+		}
+
+		@Override
+		protected MAJFCParallelMaths.RangeTask<MAJFCJointHistogram> makeSubtask(int offset, int length) {
+			return new CountTask(mXData, mYData, offset, length, mTemplate);
+		}
+
+		@Override
+		protected MAJFCJointHistogram computeLeaf() {
+			MAJFCJointHistogram histogram = new MAJFCJointHistogram(mTemplate);
+			int end = mOffset + mLength;
+			
+			for (int i = mOffset; i < end; ++i) {
+				histogram.add(mXData[i], mYData[i]);
+			}
+			
+			return histogram;
+		}
+
+		@Override
+		protected MAJFCJointHistogram combine(MAJFCJointHistogram first, MAJFCJointHistogram second) {
+			first.merge(second);
+			
+			return first;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.LinkedList;
+
+/**
+ * A Gaussian kernel density estimate of the probability density function of a set of values, evaluated on an equally spaced grid. The
+ * values are first linearly binned onto the grid (each value's weight is split between the two grid points either side of it), and the
+ * binned weights are then convolved with the kernel using the FFT, so the cost is O(n + m log m) for n values and m grid points rather
+ * than the O(n * m) of a direct estimate (see Wand M.P. (1994), "Fast computation of multivariate kernel estimators").
+ * 
+ * Invalid (NaN) values are ignored, and the density integrates to 1 over the valid values.
+ * @author mikefedora
+ *
+ */
+public class MAJFCKernelDensityEstimate {
+	private static int NUMBER_OF_BANDWIDTH_METHODS = 0;
+	/**
+	 * Silverman's rule of thumb, h = 0.9 * min(sigma, IQR/1.34) * n^(-1/5), which is robust to skewed and bimodal data
+	 */
+	public static final MAJFCBandwidthMethod BANDWIDTH_SILVERMAN = new MAJFCBandwidthMethod(NUMBER_OF_BANDWIDTH_METHODS++);
+	/**
+	 * Scott's rule, h = 1.06 * sigma * n^(-1/5), which is optimal for normally distributed data
+	 */
+	public static final MAJFCBandwidthMethod BANDWIDTH_SCOTT = new MAJFCBandwidthMethod(NUMBER_OF_BANDWIDTH_METHODS++);
+	
+	/**
+	 * The default number of grid points
+	 */
+	public static final int DEFAULT_NUMBER_OF_GRID_POINTS = 512;
+	
+	/**
+	 * The kernel is truncated at this many bandwidths, and the grid extends this far beyond the data
+	 */
+	private static final double KERNEL_CUT_OFF = 4;
+	
+	private final double mBandwidth;
+	private final double mGridStart;
+	private final double mGridStep;
+	private final double[] mDensities;
+	private final long mValidCount;
+
+	private MAJFCKernelDensityEstimate(double bandwidth, double gridStart, double gridStep, double[] densities, long validCount) {
+		mBandwidth = bandwidth;
+		mGridStart = gridStart;
+		mGridStep = gridStep;
+		mDensities = densities;
+		mValidCount = validCount;
+	}
+	
+	/**
+	 * Calculates the kernel density estimate of a range of a set of values, using Silverman's rule for the bandwidth and the default number of grid points
+	 * @param values The values
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The kernel density estimate, or null if there are fewer than two different valid values
+	 */
+	public static MAJFCKernelDensityEstimate calculate(double[] values, int offset, int length) {
+		return calculate(values, offset, length, DEFAULT_NUMBER_OF_GRID_POINTS, BANDWIDTH_SILVERMAN);
+	}
+	
+	/**
+	 * Calculates the kernel density estimate of a range of a set of values
+	 * @param values The values
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param numberOfGridPoints The number of grid points to evaluate the density at
+	 * @param bandwidthMethod The bandwidth selection method (one of the BANDWIDTH_ constants)
+	 * @return The kernel density estimate, or null if there are fewer than two different valid values
+	 */
+	public static MAJFCKernelDensityEstimate calculate(double[] values, int offset, int length, int numberOfGridPoints, MAJFCBandwidthMethod bandwidthMethod) {
+		return calculate(values, offset, length, numberOfGridPoints, bandwidth(values, offset, length, bandwidthMethod));
+	}
+	
+	/**
+	 * Calculates the kernel density estimate of a range of a set of values using a given bandwidth. The grid spans the range of the
+	 * values, extended by four bandwidths at each end.
+	 * @param values The values
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param numberOfGridPoints The number of grid points to evaluate the density at
+	 * @param bandwidth The bandwidth (the standard deviation of the Gaussian kernel)
+	 * @return The kernel density estimate, or null if there are no valid values or the bandwidth is not positive
+	 */
+	public static MAJFCKernelDensityEstimate calculate(double[] values, int offset, int length, int numberOfGridPoints, double bandwidth) {
+		if (!(bandwidth > 0) || numberOfGridPoints < 2) {
+			return null;
+		}
+		
+		double[] maxAndMin = MAJFCParallelMaths.findMaxAndMin(values, offset, length);
+		double minValue = maxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX];
+		
+		if (minValue != minValue) {
+			return null;
+		}
+		
+		double gridStart = minValue - KERNEL_CUT_OFF * bandwidth;
+		double gridEnd = maxAndMin[MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX] + KERNEL_CUT_OFF * bandwidth;
+		double gridStep = (gridEnd - gridStart)/(numberOfGridPoints - 1);
+		
+		// Linear binning
+		int numberOfKernelPoints = (int) Math.min(numberOfGridPoints - 1, Math.ceil(KERNEL_CUT_OFF * bandwidth/gridStep));
+		int transformLength = MAJFCMaths.powerOfTwoAtLeast(numberOfGridPoints + numberOfKernelPoints);
+		double[] real = new double[transformLength];
+		double[] imaginary = new double[transformLength];
+		double inverseGridStep = 1/gridStep;
+		int lastGridPoint = numberOfGridPoints - 1;
+		long validCount = 0;
+		int end = offset + length;
+		
+		for (int i = offset; i < end; ++i) {
+			double value = values[i];
+			
+			if (value != value) {
+				continue;
+			}
+			
+			double position = (value - gridStart) * inverseGridStep;
+			int lowerPoint = Math.min((int) position, lastGridPoint - 1);
+			double upperWeight = position - lowerPoint;
+			
+			real[lowerPoint] += 1 - upperWeight;
+			real[lowerPoint + 1] += upperWeight;
+			++validCount;
+		}
+		
+		// The kernel, wrapped around so that negative offsets are at the end of the array. The transform is long enough that the
+		// wrapped part of the circular convolution falls beyond the grid.
+		double[] kernelReal = new double[transformLength];
+		double[] kernelImaginary = new double[transformLength];
+		double kernelScale = 1/(validCount * bandwidth * Math.sqrt(2 * Math.PI));
+		double exponentScale = -0.5 * gridStep * gridStep/(bandwidth * bandwidth);
+		
+		kernelReal[0] = kernelScale;
+		
+		for (int k = 1; k <= numberOfKernelPoints; ++k) {
+			double kernelValue = kernelScale * Math.exp(exponentScale * k * k);
+			kernelReal[k] = kernelValue;
+			kernelReal[transformLength - k] = kernelValue;
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, false);
+		MAJFCMaths.fastFourierTransform(kernelReal, kernelImaginary, transformLength, false);
+		
+		for (int i = 0; i < transformLength; ++i) {
+			double productReal = real[i] * kernelReal[i] - imaginary[i] * kernelImaginary[i];
+			imaginary[i] = real[i] * kernelImaginary[i] + imaginary[i] * kernelReal[i];
+			real[i] = productReal;
+		}
+		
+		MAJFCMaths.fastFourierTransform(real, imaginary, transformLength, true);
+		
+		double[] densities = new double[numberOfGridPoints];
+		
+		for (int i = 0; i < numberOfGridPoints; ++i) {
+			// Clear the rounding noise from the transforms
+			densities[i] = Math.max(real[i], 0);
+		}
+		
+		return new MAJFCKernelDensityEstimate(bandwidth, gridStart, gridStep, densities, validCount);
+	}
+	
+	/**
+	 * Selects the kernel bandwidth for a range of a set of values
+	 * @param values The values
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param bandwidthMethod The bandwidth selection method (one of the BANDWIDTH_ constants)
+	 * @return The bandwidth, which is 0 if all the valid values are the same, or NaN if there are none
+	 */
+	public static double bandwidth(double[] values, int offset, int length, MAJFCBandwidthMethod bandwidthMethod) {
+		MAJFCMoments moments = MAJFCParallelMaths.moments(values, offset, length);
+		double standardDeviation = moments.getStandardDeviation();
+		double sizeFactor = Math.pow(moments.getValidCount(), -0.2);
+		
+		if (bandwidthMethod.equals(BANDWIDTH_SCOTT)) {
+			return 1.06 * standardDeviation * sizeFactor;
+		}
+		
+		double spread = Math.min(standardDeviation, new MAJFCQuantiles(length).interquartileRange(values, offset, length)/1.34);
+		
+		// A very peaked distribution can have no interquartile range
+		if (spread <= 0) {
+			spread = standardDeviation;
+		}
+		
+		return 0.9 * spread * sizeFactor;
+	}
+	
+	/**
+	 * @return The kernel bandwidth
+	 */
+	public double getBandwidth() {
+		return mBandwidth;
+	}
+	
+	/**
+	 * @return The number of valid values the estimate was made from
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+	
+	/**
+	 * @return The number of grid points
+	 */
+	public int getNumberOfGridPoints() {
+		return mDensities.length;
+	}
+	
+	/**
+	 * @param index The grid point index
+	 * @return The value at the grid point
+	 */
+	public double getGridPoint(int index) {
+		return mGridStart + index * mGridStep;
+	}
+	
+	/**
+	 * @param index The grid point index
+	 * @return The probability density at the grid point
+	 */
+	public double getDensity(int index) {
+		return mDensities[index];
+	}
+	
+	/**
+	 * @return A copy of the probability densities at the grid points
+	 */
+	public double[] getDensities() {
+		return mDensities.clone();
+	}
+	
+	/**
+	 * @return The estimate in the form returned by MAJFCMaths.probabilityDensityFunction (normalised), for plotting
+	 */
+	public LinkedList<Double[]> toPDF() {
+		LinkedList<Double[]> pdf = new LinkedList<Double[]>();
+		
+		for (int i = 0; i < mDensities.length; ++i) {
+			pdf.add(new Double[] { getGridPoint(i), mDensities[i] });
+		}
+		
+		return pdf;
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	public static class MAJFCBandwidthMethod extends MAJFCSafeArray.MAJFCSafeArrayIndex {
+		private MAJFCBandwidthMethod(int index) {
+			super(index);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * The inner loops of the primitive MAJFCMaths reductions (sums, dot products of fluctuations and extrema). All kernels skip invalid
+ * (NaN) values. The reductions return their results rather than filling a holder, so the MAJFCMaths methods built on them allocate
+ * nothing.
+ * 
+ * The implementation is chosen once, when the class is loaded. By default this is MAJFCKernels.Scalar, whose loops use several
+ * independent, branch-free accumulators so that HotSpot can pipeline and vectorise them. A platform-specific implementation (e.g. one
+ * built on the incubating jdk.incubator.vector API, compiled and deployed separately since it needs a newer JDK) can be used instead by
+ * naming its class, which must extend MAJFCKernels and have a public no-argument constructor, in the system property
+ * KERNELS_CLASS_PROPERTY. If it cannot be loaded the scalar kernels are used.
+ * @author mikefedora
+ *
+ */
+public abstract class MAJFCKernels {
+	public static final String KERNELS_CLASS_PROPERTY = "majfc.kernels";
+	
+	public static final int EXTREMA_MINIMUM_INDEX = 0;
+	public static final int EXTREMA_MAXIMUM_INDEX = 1;
+
+	private static final MAJFCKernels sKernels = loadKernels();
+	
+	/**
+	 * @return The kernels selected for this platform
+	 */
+	public static MAJFCKernels get() {
+		return sKernels;
+	}
+	
+	private static MAJFCKernels loadKernels() {
+		String kernelsClassName = System.getProperty(KERNELS_CLASS_PROPERTY);
+		
+		if (kernelsClassName != null) {
+			try {
+				return (MAJFCKernels) Class.forName(kernelsClassName).getConstructor().newInstance();
+			} catch (Exception theException) {
+				MAJFCLogger.log("Failed to load kernels " + kernelsClassName + ", using scalar kernels: " + theException, 10);
+			}
+		}
+		
+		return new Scalar();
+	}
+	
+	/**
+	 * Calculates the mean of the valid values of a range
+	 * @param data The data
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The mean (NaN if there are no valid values)
+	 */
+	public abstract double mean(double[] data, int offset, int length);
+	
+	/**
+	 * Calculates the mean of the squares of the valid values of a range
+	 * @param data The data
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The mean square (NaN if there are no valid values)
+	 */
+	public abstract double meanSquare(double[] data, int offset, int length);
+	
+	/**
+	 * Sums the valid values of a range
+	 * @param data The data
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The sum
+	 */
+	public abstract double sum(double[] data, int offset, int length);
+	
+	/**
+	 * Counts the valid values of a range
+	 * @param data The data
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The number of valid values
+	 */
+	public abstract int validCount(double[] data, int offset, int length);
+	
+	/**
+	 * Calculates the mean of a range over the sample pairs (with a second range) for which neither value is invalid
+	 * @param dataSet The data set to average
+	 * @param offset The index of the first value to use from the data set
+	 * @param otherDataSet The data set it is paired with
+	 * @param otherOffset The index of the first value to use from the other data set
+	 * @param length The number of values to use
+	 * @return The mean (NaN if there are no valid pairs)
+	 */
+	public abstract double pairwiseMean(double[] dataSet, int offset, double[] otherDataSet, int otherOffset, int length);
+	
+	/**
+	 * Calculates the mean product of the fluctuations of two ranges about the given means, skipping pairs in which either value is invalid
+	 * @param dataSet1 The first data set
+	 * @param dataSet1Mean The mean to subtract from the first data set
+	 * @param offset1 The index of the first value to use from the first data set
+	 * @param dataSet2 The second data set
+	 * @param dataSet2Mean The mean to subtract from the second data set
+	 * @param offset2 The index of the first value to use from the second data set
+	 * @param length The number of values to use
+	 * @return The mean product (NaN if there are no valid pairs)
+	 */
+	public abstract double fluctuationProductMean(double[] dataSet1, double dataSet1Mean, int offset1, double[] dataSet2, double dataSet2Mean, int offset2, int length);
+	
+	/**
+	 * Calculates the mean absolute difference between two ranges, skipping pairs in which either value is invalid
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @param offset The index of the first value to use (in both data sets)
+	 * @param length The number of values to use
+	 * @return The mean absolute difference (NaN if there are no valid pairs)
+	 */
+	public abstract double absoluteDifferenceMean(double[] dataSet1, double[] dataSet2, int offset, int length);
+	
+	/**
+	 * Finds the minimum and maximum valid values of a range, and where they are, in a single scan
+	 * @param data The data
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param extrema Holder for the minimum and maximum, indexed by EXTREMA_MINIMUM_INDEX and EXTREMA_MAXIMUM_INDEX (both NaN if there
+	 * are no valid values)
+	 * @param extremaIndices Holder for the indices of the (first) minimum and maximum, indexed in the same way (both -1 if there are no
+	 * valid values), or null if they are not needed
+	 */
+	public abstract void extrema(double[] data, int offset, int length, double[] extrema, int[] extremaIndices);
+	
+	/**
+	 * The portable kernels, unrolled four ways with independent accumulators
+	 */
+	public static class Scalar extends MAJFCKernels {
+		@Override
+		public double mean(double[] data, int offset, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			long count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+			int end = offset + length;
+			int unrolledEnd = offset + (length & ~3);
+			int i = offset;
+			
+			for (; i < unrolledEnd; i += 4) {
+				// x == x is false only for NaN; selecting 0 rather than branching keeps the loop free of unpredictable jumps
+				sum0 += data[i] == data[i] ? data[i] : 0;
+				sum1 += data[i + 1] == data[i + 1] ? data[i + 1] : 0;
+				sum2 += data[i + 2] == data[i + 2] ? data[i + 2] : 0;
+				sum3 += data[i + 3] == data[i + 3] ? data[i + 3] : 0;
+				count0 += data[i] == data[i] ? 1 : 0;
+				count1 += data[i + 1] == data[i + 1] ? 1 : 0;
+				count2 += data[i + 2] == data[i + 2] ? 1 : 0;
+				count3 += data[i + 3] == data[i + 3] ? 1 : 0;
+			}
+			
+			for (; i < end; ++i) {
+				double value = data[i];
+				
+				if (value == value) {
+					sum0 += value;
+					++count0;
+				}
+			}
+			
+			return ((sum0 + sum1) + (sum2 + sum3))/(count0 + count1 + count2 + count3);
+		}
+		
+		@Override
+		public double meanSquare(double[] data, int offset, int length) {
+			double squares0 = 0, squares1 = 0, squares2 = 0, squares3 = 0;
+			long count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+			int end = offset + length;
+			int unrolledEnd = offset + (length & ~3);
+			int i = offset;
+			
+			for (; i < unrolledEnd; i += 4) {
+				// A NaN square is NaN, so the squares can be tested rather than the values
+				double square0 = data[i] * data[i];
+				double square1 = data[i + 1] * data[i + 1];
+				double square2 = data[i + 2] * data[i + 2];
+				double square3 = data[i + 3] * data[i + 3];
+				
+				squares0 += square0 == square0 ? square0 : 0;
+				squares1 += square1 == square1 ? square1 : 0;
+				squares2 += square2 == square2 ? square2 : 0;
+				squares3 += square3 == square3 ? square3 : 0;
+				count0 += square0 == square0 ? 1 : 0;
+				count1 += square1 == square1 ? 1 : 0;
+				count2 += square2 == square2 ? 1 : 0;
+				count3 += square3 == square3 ? 1 : 0;
+			}
+			
+			for (; i < end; ++i) {
+				double value = data[i];
+				
+				if (value == value) {
+					squares0 += value * value;
+					++count0;
+				}
+			}
+			
+			return ((squares0 + squares1) + (squares2 + squares3))/(count0 + count1 + count2 + count3);
+		}
+		
+		@Override
+		public double sum(double[] data, int offset, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			int end = offset + length;
+			int unrolledEnd = offset + (length & ~3);
+			int i = offset;
+			
+			for (; i < unrolledEnd; i += 4) {
+				sum0 += data[i] == data[i] ? data[i] : 0;
+				sum1 += data[i + 1] == data[i + 1] ? data[i + 1] : 0;
+				sum2 += data[i + 2] == data[i + 2] ? data[i + 2] : 0;
+				sum3 += data[i + 3] == data[i + 3] ? data[i + 3] : 0;
+			}
+			
+			for (; i < end; ++i) {
+				sum0 += data[i] == data[i] ? data[i] : 0;
+			}
+			
+			return (sum0 + sum1) + (sum2 + sum3);
+		}
+		
+		@Override
+		public int validCount(double[] data, int offset, int length) {
+			int count = 0;
+			int end = offset + length;
+			
+			for (int i = offset; i < end; ++i) {
+				count += data[i] == data[i] ? 1 : 0;
+			}
+			
+			return count;
+		}
+
+		@Override
+		public double pairwiseMean(double[] dataSet, int offset, double[] otherDataSet, int otherOffset, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			long count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+			int unrolledLength = length & ~3;
+			int i = 0;
+			
+			for (; i < unrolledLength; i += 4) {
+				// The value is replaced by NaN where the other value is invalid, so one test covers both
+				double value0 = otherDataSet[otherOffset + i] == otherDataSet[otherOffset + i] ? dataSet[offset + i] : Double.NaN;
+				double value1 = otherDataSet[otherOffset + i + 1] == otherDataSet[otherOffset + i + 1] ? dataSet[offset + i + 1] : Double.NaN;
+				double value2 = otherDataSet[otherOffset + i + 2] == otherDataSet[otherOffset + i + 2] ? dataSet[offset + i + 2] : Double.NaN;
+				double value3 = otherDataSet[otherOffset + i + 3] == otherDataSet[otherOffset + i + 3] ? dataSet[offset + i + 3] : Double.NaN;
+				
+				sum0 += value0 == value0 ? value0 : 0;
+				sum1 += value1 == value1 ? value1 : 0;
+				sum2 += value2 == value2 ? value2 : 0;
+				sum3 += value3 == value3 ? value3 : 0;
+				count0 += value0 == value0 ? 1 : 0;
+				count1 += value1 == value1 ? 1 : 0;
+				count2 += value2 == value2 ? 1 : 0;
+				count3 += value3 == value3 ? 1 : 0;
+			}
+			
+			for (; i < length; ++i) {
+				double value = dataSet[offset + i];
+				double other = otherDataSet[otherOffset + i];
+				
+				if (value == value && other == other) {
+					sum0 += value;
+					++count0;
+				}
+			}
+			
+			return ((sum0 + sum1) + (sum2 + sum3))/(count0 + count1 + count2 + count3);
+		}
+		
+		@Override
+		public double fluctuationProductMean(double[] dataSet1, double dataSet1Mean, int offset1, double[] dataSet2, double dataSet2Mean, int offset2, int length) {
+			double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+			long count0 = 0, count1 = 0, count2 = 0, count3 = 0;
+			int unrolledLength = length & ~3;
+			int i = 0;
+			
+			for (; i < unrolledLength; i += 4) {
+				// A NaN in either value makes the product NaN
+				double product0 = (dataSet1[offset1 + i] - dataSet1Mean) * (dataSet2[offset2 + i] - dataSet2Mean);
+				double product1 = (dataSet1[offset1 + i + 1] - dataSet1Mean) * (dataSet2[offset2 + i + 1] - dataSet2Mean);
+				double product2 = (dataSet1[offset1 + i + 2] - dataSet1Mean) * (dataSet2[offset2 + i + 2] - dataSet2Mean);
+				double product3 = (dataSet1[offset1 + i + 3] - dataSet1Mean) * (dataSet2[offset2 + i + 3] - dataSet2Mean);
+				
+				sum0 += product0 == product0 ? product0 : 0;
+				sum1 += product1 == product1 ? product1 : 0;
+				sum2 += product2 == product2 ? product2 : 0;
+				sum3 += product3 == product3 ? product3 : 0;
+				count0 += product0 == product0 ? 1 : 0;
+				count1 += product1 == product1 ? 1 : 0;
+				count2 += product2 == product2 ? 1 : 0;
+				count3 += product3 == product3 ? 1 : 0;
+			}
+			
+			for (; i < length; ++i) {
+				double product = (dataSet1[offset1 + i] - dataSet1Mean) * (dataSet2[offset2 + i] - dataSet2Mean);
+				
+				if (product == product) {
+					sum0 += product;
+					++count0;
+				}
+			}
+			
+			return ((sum0 + sum1) + (sum2 + sum3))/(count0 + count1 + count2 + count3);
+		}
+
+		@Override
+		public double absoluteDifferenceMean(double[] dataSet1, double[] dataSet2, int offset, int length) {
+			double sum0 = 0, sum1 = 0;
+			long count0 = 0, count1 = 0;
+			int end = offset + length;
+			int unrolledEnd = offset + (length & ~1);
+			int i = offset;
+			
+			for (; i < unrolledEnd; i += 2) {
+				double difference0 = Math.abs(dataSet2[i] - dataSet1[i]);
+				double difference1 = Math.abs(dataSet2[i + 1] - dataSet1[i + 1]);
+				
+				sum0 += difference0 == difference0 ? difference0 : 0;
+				sum1 += difference1 == difference1 ? difference1 : 0;
+				count0 += difference0 == difference0 ? 1 : 0;
+				count1 += difference1 == difference1 ? 1 : 0;
+			}
+			
+			for (; i < end; ++i) {
+				double difference = Math.abs(dataSet2[i] - dataSet1[i]);
+				
+				if (difference == difference) {
+					sum0 += difference;
+					++count0;
+				}
+			}
+			
+			return (sum0 + sum1)/(count0 + count1);
+		}
+
+		@Override
+		public void extrema(double[] data, int offset, int length, double[] extrema, int[] extremaIndices) {
+			// Two interleaved lanes, merged at the end. NaN fails every comparison, so is skipped without a separate test.
+			double min0 = Double.POSITIVE_INFINITY, min1 = Double.POSITIVE_INFINITY;
+			double max0 = Double.NEGATIVE_INFINITY, max1 = Double.NEGATIVE_INFINITY;
+			int minIndex0 = -1, minIndex1 = -1, maxIndex0 = -1, maxIndex1 = -1;
+			int end = offset + length;
+			int unrolledEnd = offset + (length & ~1);
+			int i = offset;
+			
+			for (; i < unrolledEnd; i += 2) {
+				double value0 = data[i];
+				double value1 = data[i + 1];
+				
+				if (value0 < min0) {
+					min0 = value0;
+					minIndex0 = i;
+				}
+				
+				if (value0 > max0) {
+					max0 = value0;
+					maxIndex0 = i;
+				}
+				
+				if (value1 < min1) {
+					min1 = value1;
+					minIndex1 = i + 1;
+				}
+				
+				if (value1 > max1) {
+					max1 = value1;
+					maxIndex1 = i + 1;
+				}
+			}
+			
+			if (i < end) {
+				double value = data[i];
+				
+				if (value < min1) {
+					min1 = value;
+					minIndex1 = i;
+				}
+				
+				if (value > max1) {
+					max1 = value;
+					maxIndex1 = i;
+				}
+			}
+			
+			// Merge the lanes, preferring the earlier index for equal values. An infinite value is only found if it is in the data,
+			// in which case its index is set.
+			if (min1 < min0 || (min1 == min0 && minIndex1 >= 0 && (minIndex0 < 0 || minIndex1 < minIndex0))) {
+				min0 = min1;
+				minIndex0 = minIndex1;
+			}
+			
+			if (max1 > max0 || (max1 == max0 && maxIndex1 >= 0 && (maxIndex0 < 0 || maxIndex1 < maxIndex0))) {
+				max0 = max1;
+				maxIndex0 = maxIndex1;
+			}
+			
+			// The only valid values that can fail to set an index are infinities equal to the starting values, and if one extreme was
+			// found without the other then every valid value is that same infinity
+			if (minIndex0 < 0) {
+				minIndex0 = maxIndex0;
+				min0 = max0;
+			} else if (maxIndex0 < 0) {
+				maxIndex0 = minIndex0;
+				max0 = min0;
+			}
+			
+			extrema[EXTREMA_MINIMUM_INDEX] = minIndex0 < 0 ? Double.NaN : min0;
+			extrema[EXTREMA_MAXIMUM_INDEX] = maxIndex0 < 0 ? Double.NaN : max0;
+			
+			if (extremaIndices != null) {
+				extremaIndices[EXTREMA_MINIMUM_INDEX] = minIndex0;
+				extremaIndices[EXTREMA_MAXIMUM_INDEX] = maxIndex0;
+			}
+		}
+	}
+}
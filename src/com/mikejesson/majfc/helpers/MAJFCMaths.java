@@ -17,11 +17,12 @@
 package com.mikejesson.majfc.helpers;
 
 
-import java.util.Collections;
+import java.nio.DoubleBuffer;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.mikejesson.majfc.helpers.MAJFCTools.MAJFCToolsException;
 
@@ -46,6 +47,8 @@ public class MAJFCMaths {
 	public static final MAJFCMathsStripFromType STRIP_FROM_EACH_END = new MAJFCMathsStripFromType(NUMBER_OF_STRIP_FROM_TYPES++);
 	public static final MAJFCMathsStripFromType STRIP_FROM_END = new MAJFCMathsStripFromType(NUMBER_OF_STRIP_FROM_TYPES++);
 	
+	private static final ConcurrentHashMap<Integer, double[]> sTwiddleFactors = new ConcurrentHashMap<Integer, double[]>();
+	
 	private static int NUMBER_OF_PSD_WINDOW_TYPES = 0;
 	public static final MAJFCMathsPSDWindowType PSD_WINDOW_TYPE_NONE = new MAJFCMathsPSDWindowType(NUMBER_OF_PSD_WINDOW_TYPES++);
 	public static final MAJFCMathsPSDWindowType PSD_WINDOW_TYPE_BARTLETT = new MAJFCMathsPSDWindowType(NUMBER_OF_PSD_WINDOW_TYPES++);
@@ -67,22 +70,9 @@ public class MAJFCMaths {
 	 * @return The calculated mean
 	 */
 	public static double mean(List<Double> data, int numberOfElementsToUse) {
-		double total = 0;
-		int numberOfInvalidMeasurements = 0;
 		numberOfElementsToUse = Math.min(data.size(), numberOfElementsToUse);
 
-		for (int i = 0; i < numberOfElementsToUse; ++i){
-			Double value = data.get(i);
-			
-			if (value.equals(Double.NaN)) {
-				++numberOfInvalidMeasurements;
-				continue;
-			}
-			
-			total = total + value;
-		}
-		
-		return total/(numberOfElementsToUse - numberOfInvalidMeasurements);
+		return mean(toPrimitiveArray(data, numberOfElementsToUse), 0, numberOfElementsToUse);
 	}
 
 	/**
@@ -100,6 +90,78 @@ public class MAJFCMaths {
 		return MAJFCMaths.mean(values.subList(firstIndex, lastIndex));
 	}
 	
+	/**
+	 * Calculates the arithmetic mean of a set of data
+	 * @param data The data to calculate the mean for
+	 * @return The calculated mean
+	 */
+	public static double mean(double[] data) {
+		return mean(data, 0, data.length);
+	}
+
+	/**
+	 * Calculates the arithmetic mean of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the mean for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated mean
+	 */
+	public static double mean(double[] data, int offset, int length) {
+		return MAJFCKernels.get().mean(data, offset, length);
+	}
+	
+	/**
+	 * Calculates the arithmetic mean of the valid values in a range of a set of data. Runs of invalid values are skipped without being read.
+	 * @param data The data to calculate the mean for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @param mask The validity of each element of data
+	 * @return The calculated mean
+	 */
+	public static double mean(double[] data, int offset, int length, MAJFCValidityMask mask) {
+		MAJFCKernels kernels = MAJFCKernels.get();
+		double total = 0;
+		long numberOfValidMeasurements = 0;
+		int end = offset + length;
+		
+		for (int runStart = mask.nextValid(offset, end); runStart < end; ) {
+			int runEnd = mask.nextInvalid(runStart, end);
+			total += kernels.sum(data, runStart, runEnd - runStart);
+			numberOfValidMeasurements += kernels.validCount(data, runStart, runEnd - runStart);
+			runStart = mask.nextValid(runEnd, end);
+		}
+		
+		return total/numberOfValidMeasurements;
+	}
+	
+	/**
+	 * Calculates the arithmetic mean of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
+	 * @param data The data to calculate the mean for
+	 * @return The calculated mean
+	 */
+	public static double mean(DoubleBuffer data) {
+		if (data.hasArray()) {
+			return mean(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		}
+		
+		double total = 0;
+		int numberOfValidMeasurements = 0;
+		int end = data.limit();
+
+		for (int i = data.position(); i < end; ++i) {
+			double value = data.get(i);
+			
+			if (value != value) {
+				continue;
+			}
+			
+			total += value;
+			++numberOfValidMeasurements;
+		}
+		
+		return total/numberOfValidMeasurements;
+	}
+	
 	/**
 	 * Calculates the RMS of a set of data
 	 * @param data The data to calculate the RMS for
@@ -116,23 +178,58 @@ public class MAJFCMaths {
 	 * @return The calculated RMS value
 	 */
 	public static double rms(List<Double> data, int numberOfElementsToUse) {
-		double total = 0;
-		int numberOfInvalidMeasurements = 0;
 		numberOfElementsToUse = Math.min(data.size(), numberOfElementsToUse);
 
-		for (int i = 0; i < numberOfElementsToUse; ++i){
-			Double value = data.get(i);
+		return rms(toPrimitiveArray(data, numberOfElementsToUse), 0, numberOfElementsToUse);
+	}	
+	
+	/**
+	 * Calculates the RMS of a set of data
+	 * @param data The data to calculate the RMS for
+	 * @return The calculated RMS value
+	 */
+	public static double rms(double[] data) {
+		return rms(data, 0, data.length);
+	}
+	
+	/**
+	 * Calculates the RMS of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the RMS for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated RMS value
+	 */
+	public static double rms(double[] data, int offset, int length) {
+		return Math.sqrt(MAJFCKernels.get().meanSquare(data, offset, length));
+	}
+	
+	/**
+	 * Calculates the RMS of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
+	 * @param data The data to calculate the RMS for
+	 * @return The calculated RMS value
+	 */
+	public static double rms(DoubleBuffer data) {
+		if (data.hasArray()) {
+			return rms(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		}
+		
+		double total = 0;
+		int numberOfValidMeasurements = 0;
+		int end = data.limit();
+
+		for (int i = data.position(); i < end; ++i) {
+			double value = data.get(i);
 			
-			if (value.equals(Double.NaN)) {
-				++numberOfInvalidMeasurements;
+			if (value != value) {
 				continue;
 			}
 			
-			total = total + Math.pow(value, 2);
+			total += value * value;
+			++numberOfValidMeasurements;
 		}
 		
-		return Math.sqrt(total/(numberOfElementsToUse - numberOfInvalidMeasurements));
-	}	
+		return Math.sqrt(total/numberOfValidMeasurements);
+	}
 	
 	/**
 	 * Calculates the standard deviation of a set of data
@@ -150,103 +247,276 @@ public class MAJFCMaths {
 	 * @return The calculated standard deviation
 	 */
 	public static double standardDeviation(List<Double> data, int numberOfElementsToUse) {
-		double stDevSum = 0;
-		double mean = mean(data);
-		int numberOfInvalidMeasurements = 0;
 		numberOfElementsToUse = Math.min(data.size(), numberOfElementsToUse);
+
+		return standardDeviation(toPrimitiveArray(data, numberOfElementsToUse), 0, numberOfElementsToUse);
+	}
+	
+	/**
+	 * Calculates the standard deviation of a set of data
+	 * @param data The data to calculate the standard deviation for
+	 * @return The calculated standard deviation
+	 */
+	public static double standardDeviation(double[] data) {
+		return standardDeviation(data, 0, data.length);
+	}
+	
+	/**
+	 * Calculates the standard deviation of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the standard deviation for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated standard deviation
+	 */
+	public static double standardDeviation(double[] data, int offset, int length) {
+		return MAJFCMoments.calculate(data, offset, length).getStandardDeviation();
+	}
+	
+	/**
+	 * Calculates the standard deviation of the valid values in a range of a set of data. Runs of invalid values are skipped without being read.
+	 * @param data The data to calculate the standard deviation for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @param mask The validity of each element of data
+	 * @return The calculated standard deviation
+	 */
+	public static double standardDeviation(double[] data, int offset, int length, MAJFCValidityMask mask) {
+		return MAJFCMoments.calculate(data, offset, length, mask).getStandardDeviation();
+	}
+	
+	/**
+	 * Calculates the standard deviation of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
+	 * @param data The data to calculate the standard deviation for
+	 * @return The calculated standard deviation
+	 */
+	public static double standardDeviation(DoubleBuffer data) {
+		return MAJFCMoments.calculate(data).getStandardDeviation();
+	}
+	
+	/**
+	 * Calculates the mean absolute deviation of a set of data
+	 * @param data The data to calculate the mean absolute deviation for
+	 * @return The calculated mean absolute deviation
+	 */
+	public static double meanAbsoluteDeviation(List<Double> data) {
+		int numberOfMeasurements = data.size();
+		
+		return meanAbsoluteDeviation(toPrimitiveArray(data, numberOfMeasurements), 0, numberOfMeasurements);
+	}
+	
+	/**
+	 * Calculates the mean absolute deviation of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the mean absolute deviation for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated mean absolute deviation
+	 */
+	public static double meanAbsoluteDeviation(double[] data, int offset, int length) {
+		double meanAbsDevSum = 0;
+		double mean = mean(data, offset, length);
+		int numberOfValidMeasurements = 0;
+		int end = offset + length;
 		
-		for (int i = 0; i < numberOfElementsToUse; ++i){
-			Double value = data.get(i);
+		for (int i = offset; i < end; ++i) {
+			double value = data[i];
 			
-			if (value.equals(Double.NaN)) {
-				++numberOfInvalidMeasurements;
+			if (value != value) {
 				continue;
 			}
 
-			stDevSum = stDevSum + Math.pow(value - mean, 2);
+			meanAbsDevSum += Math.abs(value - mean);
+			++numberOfValidMeasurements;
 		}
 		
-		return Math.sqrt(stDevSum/(numberOfElementsToUse - numberOfInvalidMeasurements));
+		return meanAbsDevSum/numberOfValidMeasurements;
 	}
 	
 	/**
-	 * Calculates the mean absolute deviation of a set of data
+	 * Calculates the mean absolute deviation of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
 	 * @param data The data to calculate the mean absolute deviation for
 	 * @return The calculated mean absolute deviation
 	 */
-	public static double meanAbsoluteDeviation(List<Double> data) {
+	public static double meanAbsoluteDeviation(DoubleBuffer data) {
+		if (data.hasArray()) {
+			return meanAbsoluteDeviation(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		}
+		
 		double meanAbsDevSum = 0;
 		double mean = mean(data);
-		int numberOfMeasurements = data.size();
-		int numberOfInvalidMeasurements = 0;
+		int numberOfValidMeasurements = 0;
+		int end = data.limit();
 		
-		for (int i = 0; i < numberOfMeasurements; ++i){
-			Double value = data.get(i);
+		for (int i = data.position(); i < end; ++i) {
+			double value = data.get(i);
 			
-			if (value.equals(Double.NaN)) {
-				++numberOfInvalidMeasurements;
+			if (value != value) {
 				continue;
 			}
 
-			meanAbsDevSum = meanAbsDevSum + Math.abs(value - mean);
+			meanAbsDevSum += Math.abs(value - mean);
+			++numberOfValidMeasurements;
 		}
 		
-		return meanAbsDevSum/(numberOfMeasurements - numberOfInvalidMeasurements);
+		return meanAbsDevSum/numberOfValidMeasurements;
 	}
 	
 	/**
-	 * Calculates the median absolute deviation of a set of data
+	 * Calculates the median absolute deviation (the median of the absolute deviations from the median) of a set of data
 	 * @param data The data to calculate the median absolute deviation for
 	 * @return The calculated median absolute deviation
 	 */
 	public static double medianAbsoluteDeviation(List<Double> data) {
-		double medianAbsDevSum = 0;
 		int numberOfMeasurements = data.size();
-		int numberOfInvalidMeasurements = 0;
-		int centreIndex = numberOfMeasurements/2;
-		double median = data.get(centreIndex + 1);
 		
-		// Copy the data otherwise we sort the original list
-		Vector<Double> sortedData = new Vector<Double>(data.size());
-		sortedData.addAll(data);
+		return medianAbsoluteDeviation(toPrimitiveArray(data, numberOfMeasurements), 0, numberOfMeasurements);
+	}
+	
+	/**
+	 * Calculates the median absolute deviation (the median of the absolute deviations from the median) of a range of a set of data.
+	 * Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the median absolute deviation for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated median absolute deviation
+	 */
+	public static double medianAbsoluteDeviation(double[] data, int offset, int length) {
+		return new MAJFCQuantiles(length).medianAbsoluteDeviation(data, offset, length);
+	}
+	
+	/**
+	 * Calculates the median of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the median for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated median
+	 */
+	public static double median(double[] data, int offset, int length) {
+		return new MAJFCQuantiles(length).median(data, offset, length);
+	}
+	
+	/**
+	 * Calculates a percentile of a range of a set of data, interpolating linearly between the closest ranks. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the percentile for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @param percentile The percentile to calculate, between 0 and 100
+	 * @return The calculated percentile
+	 */
+	public static double percentile(double[] data, int offset, int length, double percentile) {
+		return new MAJFCQuantiles(length).percentile(data, offset, length, percentile);
+	}
+	
+	/**
+	 * Calculates the interquartile range of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the interquartile range for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated interquartile range
+	 */
+	public static double interquartileRange(double[] data, int offset, int length) {
+		return new MAJFCQuantiles(length).interquartileRange(data, offset, length);
+	}
+	
+	/**
+	 * Calculates the skewness of a set of data
+	 * @param data The data to calculate the skewness for
+	 * @return The calculated skewness
+	 */
+	public static double skewness(List<Double> data) {
+		int numberOfValues = data.size();
+		
+		return skewness(toPrimitiveArray(data, numberOfValues), 0, numberOfValues);
+	}
+	
+	/**
+	 * Calculates the skewness of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the skewness for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated skewness
+	 */
+	public static double skewness(double[] data, int offset, int length) {
+		return MAJFCMoments.calculate(data, offset, length).getSkewness();
+	}
+	
+	/**
+	 * Calculates the skewness of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
+	 * @param data The data to calculate the skewness for
+	 * @return The calculated skewness
+	 */
+	public static double skewness(DoubleBuffer data) {
+		return MAJFCMoments.calculate(data).getSkewness();
+	}
+	
+	/**
+	 * Calculates the kurtosis of a set of data
+	 * @param data The data to calculate the kurtosis for
+	 * @return The calculated kurtosis (3 for a normal distribution)
+	 */
+	public static double kurtosis(List<Double> data) {
+		int numberOfValues = data.size();
 		
-		Collections.sort(sortedData);
-
-		if (numberOfMeasurements % 2 == 0) { 
-			median = (sortedData.get(centreIndex) + median)/2;
-		}
-
-		for (int i = 0; i < numberOfMeasurements; ++i){
-			Double value = sortedData.get(i);
-			
-			if (value.equals(Double.NaN)) {
-				++numberOfInvalidMeasurements;
-				continue;
+		return kurtosis(toPrimitiveArray(data, numberOfValues), 0, numberOfValues);
+	}
+	
+	/**
+	 * Calculates the kurtosis of a range of a set of data. Invalid (NaN) values are ignored.
+	 * @param data The data to calculate the kurtosis for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated kurtosis (3 for a normal distribution)
+	 */
+	public static double kurtosis(double[] data, int offset, int length) {
+		return MAJFCMoments.calculate(data, offset, length).getKurtosis();
+	}
+	
+	/**
+	 * Calculates the count, mean, variance, RMS, skewness and kurtosis of a set of data in a single pass
+	 * @param data The data to calculate the moments for
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments moments(List<Double> data) {
+		int numberOfValues = data.size();
+		
+		return MAJFCMoments.calculate(toPrimitiveArray(data, numberOfValues), 0, numberOfValues);
+	}
+	
+	/**
+	 * Copies the first elements of a list into a primitive array
+	 * @param data The list to copy
+	 * @param numberOfElementsToCopy The number of elements (starting with the first) to copy
+	 * @return The primitive array
+	 */
+	public static double[] toPrimitiveArray(List<Double> data, int numberOfElementsToCopy) {
+		double[] values = new double[numberOfElementsToCopy];
+		int i = 0;
+		
+		// Iterate rather than get(i) so that LinkedLists are not walked from the start for every element
+		for (Double value : data) {
+			if (i == numberOfElementsToCopy) {
+				break;
 			}
-
-			medianAbsDevSum = medianAbsDevSum + Math.abs(value - median);
+			
+			values[i++] = value;
 		}
 		
-		return medianAbsDevSum/(numberOfMeasurements - numberOfInvalidMeasurements);
-
+		return values;
 	}
 	
 	/**
-	 * Calculates the arithmetic mean of a set of data
-	 * @param data The data to calculate the mean for
-	 * @return The calculated mean
+	 * Copies values from a primitive array into a new Vector
+	 * @param data The values to copy
+	 * @param numberOfElementsToCopy The number of elements to copy, from the start of data
+	 * @return The Vector
 	 */
-	public static double skewness(List<Double> data) {
-		int numberOfValues = data.size();
-		double mean = MAJFCMaths.mean(data, numberOfValues);
-		double stDev = MAJFCMaths.standardDeviation(data, numberOfValues);
+	public static Vector<Double> toVector(double[] data, int numberOfElementsToCopy) {
+		Vector<Double> vector = new Vector<Double>(numberOfElementsToCopy);
 		
-		double skewSum = 0;
-		for (int item = 0; item < numberOfValues; ++item) {
-			skewSum += Math.pow((data.get(item) - mean)/stDev, 3);
+		for (int i = 0; i < numberOfElementsToCopy; ++i) {
+			vector.add(data[i]);
 		}
 		
-		return skewSum/numberOfValues;
+		return vector;
 	}
 	
 	/**
@@ -258,35 +528,45 @@ public class MAJFCMaths {
 	 * @return The integral average, or Double.NaN if the bounds are invalid or points and values are of different sizes
 	 */
 	public static double integralAverage(Vector<Double> values, Vector<Integer> points, int pointsLowerBound, int pointsUpperBound) {
-		double sum = 0;
 		int numberOfValues = values.size();
 		
 		if (numberOfValues != points.size() || points.firstElement() < pointsLowerBound || points.lastElement() > pointsUpperBound) {
 			return Double.NaN;
 		}
 		
-		for (int i = 0; i < numberOfValues; ++i) {
-			int pointBefore = pointsLowerBound;
-			int thisPoint = points.elementAt(i);
-			int pointAfter = pointsUpperBound;
-			double cellSizeBefore = thisPoint - pointBefore;
-			double cellSizeAfter = pointAfter - thisPoint;
-			
-			if (i != 0) {
-				pointBefore = points.elementAt(i - 1);
-				cellSizeBefore = (double) (thisPoint - pointBefore)/2;
-			}
-			
-			if (i != numberOfValues - 1) {
-				pointAfter = points.elementAt(i + 1);
-				cellSizeAfter = (double) (pointAfter - thisPoint)/2;
-			}
-			
-			double cellSize = cellSizeBefore + cellSizeAfter;
-			sum += values.elementAt(i) * cellSize;
+		double[] primitiveValues = toPrimitiveArray(values, numberOfValues);
+		double[] primitivePoints = new double[numberOfValues];
+		int i = 0;
+		
+		for (Integer point : points) {
+			primitivePoints[i++] = point;
 		}
-
-		return sum/(pointsUpperBound - pointsLowerBound); 
+		
+		return integralAverage(primitiveValues, primitivePoints, 0, numberOfValues, pointsLowerBound, pointsUpperBound);
+	}
+	
+	/**
+	 * Calculates the integral average of a set of values taken over a line of points. Between points the values are integrated by the
+	 * trapezoidal rule, and between the bounds and the outermost points they are taken to be constant.
+	 * @param values The ordered values, in position order
+	 * @param points The ordered positions of the points at which the values lie, starting with the closest to pointsLowerBound
+	 * @param offset The index of the first value (and point) to use
+	 * @param length The number of values to use
+	 * @param pointsLowerBound The lower bound for the points (this must not be greater than the first point)
+	 * @param pointsUpperBound The upper bound for the points (this must not be less than the last point)
+	 * @return The integral average, or Double.NaN if the bounds are invalid
+	 */
+	public static double integralAverage(double[] values, double[] points, int offset, int length, double pointsLowerBound, double pointsUpperBound) {
+		int last = offset + length - 1;
+		
+		if (length < 1 || points[offset] < pointsLowerBound || points[last] > pointsUpperBound) {
+			return Double.NaN;
+		}
+		
+		double integral = MAJFCIntegration.trapezoid(values, points, offset, length);
+		integral += values[offset] * (points[offset] - pointsLowerBound) + values[last] * (pointsUpperBound - points[last]);
+		
+		return integral/(pointsUpperBound - pointsLowerBound);
 	}
 	
 	/**
@@ -359,7 +639,7 @@ public class MAJFCMaths {
 	
 	/**
 	 * High pass filter
-	 * @param inputValues The values to filter
+	 * @param inputValues The values to filter. These are not changed.
 	 * @param adjustToMean If true then the mean value is subtracted from all samples before filtering, then added to the returned values 
 	 * @param cutoffFrequency The cutoff frequency below which values should be removed (attenuated)
 	 * @param timeStep The time between samples in inputValues
@@ -367,30 +647,50 @@ public class MAJFCMaths {
 	 */
 	public static Vector<Double> highPassFilter(Vector<Double> inputValues, boolean adjustToMean, double cutoffFrequency, double timeStep) {
 		int numberOfValues = inputValues.size();
-		Vector<Double> outputValues = new Vector<Double>(numberOfValues);
-		double rc = 1/(2 * Math.PI * cutoffFrequency);
-		double scaleFactor = rc/(rc + timeStep);
-		double mean = adjustToMean ? mean(inputValues) : 1.0;
-
-		if (adjustToMean) {
-			for (int i = 0; i < numberOfValues; ++i) {
-				inputValues.set(i, inputValues.elementAt(i) - mean);
-			}
-		}
+		double[] values = toPrimitiveArray(inputValues, numberOfValues);
 		
-		outputValues.add(inputValues.firstElement());
+		return toVector(highPassFilter(values, 0, numberOfValues, adjustToMean, cutoffFrequency, timeStep, values, 0), numberOfValues);
+	}
+	
+	/**
+	 * First order (RC) high pass filter on a range of a primitive series. The input is not changed, and nothing is allocated if an output array is given.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param adjustToMean If true then the mean value is subtracted from all samples before filtering, then added to the returned values 
+	 * @param cutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues
+	 */
+	public static double[] highPassFilter(double[] inputValues, int offset, int length, boolean adjustToMean, double cutoffFrequency, double timeStep,
+			double[] outputValues, int outputOffset) {
+		if (outputValues == null) {
+			outputValues = new double[outputOffset + length];
+		}
 		
-		for (int i = 1; i < numberOfValues; ++i) {
-			outputValues.add(scaleFactor * (outputValues.elementAt(i - 1) + inputValues.elementAt(i) - inputValues.elementAt(i - 1)));
+		if (length < 1) {
+			return outputValues;
 		}
-
-		if (adjustToMean) {
-			for (int i = 0; i < numberOfValues; ++i) {
-				inputValues.set(i, inputValues.elementAt(i) + mean);
-				outputValues.set(i, outputValues.elementAt(i) + mean);
-			}
+		
+		double rc = 1/(2 * Math.PI * cutoffFrequency);
+		double scaleFactor = rc/(rc + timeStep);
+		double mean = adjustToMean ? mean(inputValues, offset, length) : 0;
+		double previousInput = inputValues[offset];
+		double previousOutput = previousInput - mean;
+		
+		outputValues[outputOffset] = previousInput;
+		
+		// The mean cancels out of the input differences, so it is only needed at the start and when writing the output
+		for (int i = 1; i < length; ++i) {
+			double input = inputValues[offset + i];
+			previousOutput = scaleFactor * (previousOutput + input - previousInput);
+			outputValues[outputOffset + i] = previousOutput + mean;
+			previousInput = input;
 		}
-
+		
 		return outputValues;
 	}
 	
@@ -402,15 +702,42 @@ public class MAJFCMaths {
 	 * @return The filtered values
 	 */
 	public static Vector<Double> lowPassFilter(Vector<Double> inputValues, double cutoffFrequency, double timeStep) {
-		Vector<Double> outputValues = new Vector<Double>();
 		int numberOfValues = inputValues.size();
+		double[] values = toPrimitiveArray(inputValues, numberOfValues);
+		
+		return toVector(lowPassFilter(values, 0, numberOfValues, cutoffFrequency, timeStep, values, 0), numberOfValues);
+	}
+	
+	/**
+	 * First order (RC) low pass filter on a range of a primitive series. The input is not changed, and nothing is allocated if an output array is given.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param cutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues
+	 */
+	public static double[] lowPassFilter(double[] inputValues, int offset, int length, double cutoffFrequency, double timeStep, double[] outputValues, int outputOffset) {
+		if (outputValues == null) {
+			outputValues = new double[outputOffset + length];
+		}
+		
+		if (length < 1) {
+			return outputValues;
+		}
+		
 		double rc = 1/(2 * Math.PI * cutoffFrequency);
 		double smoothingFactor = timeStep/(rc + timeStep);
-
-		outputValues.add(inputValues.firstElement());
+		double previousOutput = inputValues[offset];
+		
+		outputValues[outputOffset] = previousOutput;
 		
-		for (int i = 1; i < numberOfValues; ++i) {
-			outputValues.add(smoothingFactor * inputValues.elementAt(i) + (1 - smoothingFactor) * outputValues.elementAt(i - 1));
+		for (int i = 1; i < length; ++i) {
+			previousOutput = smoothingFactor * inputValues[offset + i] + (1 - smoothingFactor) * previousOutput;
+			outputValues[outputOffset + i] = previousOutput;
 		}
 		
 		return outputValues;
@@ -425,10 +752,107 @@ public class MAJFCMaths {
 	 * @return The filtered values
 	 */
 	public static Vector<Double> bandWidthPassFilter(Vector<Double> inputValues, double lowerCutoffFrequency, double upperCutoffFrequency, double timeStep) {
-		Vector<Double> outputValues = highPassFilter(inputValues, true, lowerCutoffFrequency, timeStep);
-		outputValues = lowPassFilter(outputValues, upperCutoffFrequency, timeStep);
+		int numberOfValues = inputValues.size();
+		double[] values = toPrimitiveArray(inputValues, numberOfValues);
 		
-		return outputValues;
+		return toVector(bandWidthPassFilter(values, 0, numberOfValues, lowerCutoffFrequency, upperCutoffFrequency, timeStep, values, 0), numberOfValues);
+	}
+	
+	/**
+	 * Bandwidth pass filter (a mean-adjusted high pass filter followed by a low pass filter) on a range of a primitive series. The input
+	 * is not changed, and nothing is allocated if an output array is given.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param lowerCutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param upperCutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues
+	 */
+	public static double[] bandWidthPassFilter(double[] inputValues, int offset, int length, double lowerCutoffFrequency, double upperCutoffFrequency, double timeStep,
+			double[] outputValues, int outputOffset) {
+		outputValues = highPassFilter(inputValues, offset, length, true, lowerCutoffFrequency, timeStep, outputValues, outputOffset);
+		
+		return lowPassFilter(outputValues, outputOffset, length, upperCutoffFrequency, timeStep, outputValues, outputOffset);
+	}
+	
+	/**
+	 * Butterworth low pass filter on a range of a primitive series. The input is not changed.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param order The filter order (the roll-off is 6 * order dB per octave, or twice that if zeroPhase is true)
+	 * @param cutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param zeroPhase If true the filter is run forwards and backwards, so there is no phase shift
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues, or null if the cutoff frequency is not between 0 and the Nyquist frequency
+	 * @see MAJFCSecondOrderSections
+	 */
+	public static double[] butterworthLowPassFilter(double[] inputValues, int offset, int length, int order, double cutoffFrequency, double timeStep, boolean zeroPhase,
+			double[] outputValues, int outputOffset) {
+		return applyFilter(MAJFCSecondOrderSections.butterworth(MAJFCSecondOrderSections.FILTER_TYPE_LOW_PASS, order, cutoffFrequency, timeStep),
+				inputValues, offset, length, zeroPhase, outputValues, outputOffset);
+	}
+	
+	/**
+	 * Butterworth high pass filter on a range of a primitive series. The input is not changed.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param order The filter order (the roll-off is 6 * order dB per octave, or twice that if zeroPhase is true)
+	 * @param cutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param zeroPhase If true the filter is run forwards and backwards, so there is no phase shift
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues, or null if the cutoff frequency is not between 0 and the Nyquist frequency
+	 * @see MAJFCSecondOrderSections
+	 */
+	public static double[] butterworthHighPassFilter(double[] inputValues, int offset, int length, int order, double cutoffFrequency, double timeStep, boolean zeroPhase,
+			double[] outputValues, int outputOffset) {
+		return applyFilter(MAJFCSecondOrderSections.butterworth(MAJFCSecondOrderSections.FILTER_TYPE_HIGH_PASS, order, cutoffFrequency, timeStep),
+				inputValues, offset, length, zeroPhase, outputValues, outputOffset);
+	}
+	
+	/**
+	 * Butterworth bandwidth pass filter on a range of a primitive series. The input is not changed.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param order The order of each of the high and low pass parts of the filter
+	 * @param lowerCutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param upperCutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples in inputValues
+	 * @param zeroPhase If true the filter is run forwards and backwards, so there is no phase shift
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues, or null if either cutoff frequency is not between 0 and the Nyquist frequency
+	 * @see MAJFCSecondOrderSections
+	 */
+	public static double[] butterworthBandWidthPassFilter(double[] inputValues, int offset, int length, int order, double lowerCutoffFrequency, double upperCutoffFrequency,
+			double timeStep, boolean zeroPhase, double[] outputValues, int outputOffset) {
+		return applyFilter(MAJFCSecondOrderSections.butterworthBandPass(order, lowerCutoffFrequency, upperCutoffFrequency, timeStep),
+				inputValues, offset, length, zeroPhase, outputValues, outputOffset);
+	}
+	
+	private static double[] applyFilter(MAJFCSecondOrderSections filter, double[] inputValues, int offset, int length, boolean zeroPhase, double[] outputValues, int outputOffset) {
+		if (filter == null) {
+			return null;
+		}
+		
+		if (zeroPhase) {
+			return filter.filterZeroPhase(inputValues, offset, length, outputValues, outputOffset);
+		}
+		
+		return filter.filter(inputValues, offset, length, outputValues, outputOffset);
 	}
 	
 	/**
@@ -594,12 +1018,8 @@ public class MAJFCMaths {
 	 */
 	public static double covariance(List<Double> dataSet1, List<Double> dataSet2) {
 		int numberOfData = Math.min(dataSet1.size(), dataSet2.size());
-		double mean1 = mean(dataSet1, numberOfData);
-		double mean2 = mean(dataSet2, numberOfData);
-		double stDev1 = standardDeviation(dataSet1, numberOfData);
-		double stDev2 = standardDeviation(dataSet2, numberOfData);
 		
-		return correlation(dataSet1, mean1, stDev1, dataSet2, mean2, stDev2);
+		return covariance(toPrimitiveArray(dataSet1, numberOfData), toPrimitiveArray(dataSet2, numberOfData), 0, numberOfData);
 	}
 
 	/**
@@ -612,16 +1032,72 @@ public class MAJFCMaths {
 	 */
 	public static double covariance(List<Double> dataSet1, double dataSet1Mean, List<Double> dataSet2, double dataSet2Mean) {
 		int numberOfData = Math.min(dataSet1.size(), dataSet2.size());
-		double fluctuationProductSum = 0;
 		
-		for (int i = 0; i < numberOfData; ++i) {
-			double datum1 = dataSet1.get(i);
-			double datum2 = dataSet2.get(i);
+		return covariance(toPrimitiveArray(dataSet1, numberOfData), dataSet1Mean, toPrimitiveArray(dataSet2, numberOfData), dataSet2Mean, 0, numberOfData);
+	}
+
+	/**
+	 * Calculates the covariance between two ranges of data. The mean values are calculated from the sample pairs for which neither value
+	 * is invalid (NaN), and only those pairs are used in the covariance calculation.
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @param offset The index of the first element to use (in both data sets)
+	 * @param length The number of elements to use
+	 * @return The calculated covariance
+	 */
+	public static double covariance(double[] dataSet1, double[] dataSet2, int offset, int length) {
+		MAJFCKernels kernels = MAJFCKernels.get();
+		double mean1 = kernels.pairwiseMean(dataSet1, offset, dataSet2, offset, length);
+		double mean2 = kernels.pairwiseMean(dataSet2, offset, dataSet1, offset, length);
+		
+		return covariance(dataSet1, offset, mean1, dataSet2, offset, mean2, length);
+	}
+	
+	/**
+	 * Calculates the covariance between two ranges of data. Uses the supplied mean values in the covariance calculation, and ignores
+	 * sample pairs for which either value is invalid (NaN).
+	 * @param dataSet1 The first data set
+	 * @param dataSet1Mean The mean of the first data set
+	 * @param dataSet2 The second data set
+	 * @param dataSet2Mean The mean of the second data set
+	 * @param offset The index of the first element to use (in both data sets)
+	 * @param length The number of elements to use
+	 * @return The calculated covariance
+	 */
+	public static double covariance(double[] dataSet1, double dataSet1Mean, double[] dataSet2, double dataSet2Mean, int offset, int length) {
+		return covariance(dataSet1, offset, dataSet1Mean, dataSet2, offset, dataSet2Mean, length);
+	}
+	
+	/**
+	 * Calculates the covariance between the remaining elements (position to limit) of two buffers. The buffers' positions are not changed.
+	 * Buffers without a backing array are copied to arrays first.
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @return The calculated covariance
+	 */
+	public static double covariance(DoubleBuffer dataSet1, DoubleBuffer dataSet2) {
+		int numberOfData = Math.min(dataSet1.remaining(), dataSet2.remaining());
+		
+		if (dataSet1.hasArray() && dataSet2.hasArray()) {
+			int offset1 = dataSet1.arrayOffset() + dataSet1.position();
+			int offset2 = dataSet2.arrayOffset() + dataSet2.position();
+			MAJFCKernels kernels = MAJFCKernels.get();
+			double mean1 = kernels.pairwiseMean(dataSet1.array(), offset1, dataSet2.array(), offset2, numberOfData);
+			double mean2 = kernels.pairwiseMean(dataSet2.array(), offset2, dataSet1.array(), offset1, numberOfData);
 			
-			fluctuationProductSum += (datum1 - dataSet1Mean) * (datum2 - dataSet2Mean);
+			return covariance(dataSet1.array(), offset1, mean1, dataSet2.array(), offset2, mean2, numberOfData);
 		}
 		
-		return fluctuationProductSum/numberOfData;
+		double[] values1 = new double[numberOfData];
+		double[] values2 = new double[numberOfData];
+		dataSet1.duplicate().get(values1);
+		dataSet2.duplicate().get(values2);
+		
+		return covariance(values1, values2, 0, numberOfData);
+	}
+	
+	private static double covariance(double[] dataSet1, int offset1, double dataSet1Mean, double[] dataSet2, int offset2, double dataSet2Mean, int length) {
+		return MAJFCKernels.get().fluctuationProductMean(dataSet1, dataSet1Mean, offset1, dataSet2, dataSet2Mean, offset2, length);
 	}
 
 	/**
@@ -632,12 +1108,8 @@ public class MAJFCMaths {
 	 */
 	public static double correlation(List<Double> dataSet1, List<Double> dataSet2) {
 		int numberOfData = Math.min(dataSet1.size(), dataSet2.size());
-		double mean1 = mean(dataSet1, numberOfData);
-		double mean2 = mean(dataSet2, numberOfData);
-		double stDev1 = standardDeviation(dataSet1, numberOfData);
-		double stDev2 = standardDeviation(dataSet2, numberOfData);
 		
-		return correlation(dataSet1, mean1, stDev1, dataSet2, mean2, stDev2);
+		return correlation(toPrimitiveArray(dataSet1, numberOfData), toPrimitiveArray(dataSet2, numberOfData), 0, numberOfData);
 	}
 	
 	/**
@@ -653,25 +1125,61 @@ public class MAJFCMaths {
 	}
 
 	/**
-	 * Calculates the correlation between two sets of data. Calculates the mean values from the data sets for use in the correlation calculation.
+	 * Calculates the correlation between two ranges of data, using only the sample pairs for which neither value is invalid (NaN)
 	 * @param dataSet1 The first data set
 	 * @param dataSet2 The second data set
-	 * @return
+	 * @param offset The index of the first element to use (in both data sets)
+	 * @param length The number of elements to use
+	 * @return The calculated correlation
 	 */
-	public static double pseudoCorrelation(List<Double> dataSet1, List<Double> dataSet2) {
-		int numberOfData = Math.min(dataSet1.size(), dataSet2.size());
+	public static double correlation(double[] dataSet1, double[] dataSet2, int offset, int length) {
+		MAJFCKernels kernels = MAJFCKernels.get();
+		double mean1 = kernels.pairwiseMean(dataSet1, offset, dataSet2, offset, length);
+		double mean2 = kernels.pairwiseMean(dataSet2, offset, dataSet1, offset, length);
 		double fluctuationProductSum = 0;
-//		Vector<Double> residue = new Vector<Double>(numberOfData);
+		double fluctuationSquaredSum1 = 0;
+		double fluctuationSquaredSum2 = 0;
+		int end = offset + length;
 		
-		for (int i = 0; i < numberOfData; ++i) {
-			double datum1 = dataSet1.get(i);
-			double datum2 = dataSet2.get(i);
+		for (int i = offset; i < end; ++i) {
+			double fluctuation1 = dataSet1[i] - mean1;
+			double fluctuation2 = dataSet2[i] - mean2;
+			
+			if (fluctuation1 != fluctuation1 || fluctuation2 != fluctuation2) {
+				continue;
+			}
 			
-//			residue.add(datum2 - datum1);
-			fluctuationProductSum += Math.abs(datum2 - datum1);
+			fluctuationProductSum += fluctuation1 * fluctuation2;
+			fluctuationSquaredSum1 += fluctuation1 * fluctuation1;
+			fluctuationSquaredSum2 += fluctuation2 * fluctuation2;
 		}
 		
-		return fluctuationProductSum/numberOfData * (mean(dataSet1) > mean(dataSet2) ? -1 : 1);
+		return fluctuationProductSum/Math.sqrt(fluctuationSquaredSum1 * fluctuationSquaredSum2);
+	}
+	
+	/**
+	 * Calculates the correlation between two sets of data. Calculates the mean values from the data sets for use in the correlation calculation.
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @return
+	 */
+	public static double pseudoCorrelation(List<Double> dataSet1, List<Double> dataSet2) {
+		int numberOfData = Math.min(dataSet1.size(), dataSet2.size());
+		
+		return pseudoCorrelation(toPrimitiveArray(dataSet1, numberOfData), toPrimitiveArray(dataSet2, numberOfData), 0, numberOfData);
+	}
+	
+	/**
+	 * Calculates the mean absolute difference between two ranges of data, signed negative if the first data set has the larger mean.
+	 * Sample pairs for which either value is invalid (NaN) are ignored.
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @param offset The index of the first element to use (in both data sets)
+	 * @param length The number of elements to use
+	 * @return The calculated pseudo-correlation
+	 */
+	public static double pseudoCorrelation(double[] dataSet1, double[] dataSet2, int offset, int length) {
+		return MAJFCKernels.get().absoluteDifferenceMean(dataSet1, dataSet2, offset, length) * (mean(dataSet1, offset, length) > mean(dataSet2, offset, length) ? -1 : 1);
 	}
 	
 	public static Vector<Double> estimatePowerSpectrumBartlett(Vector<Double> inputSignal, double samplingRate, int numberOfSplits) {
@@ -683,6 +1191,34 @@ public class MAJFCMaths {
 		return estimatePowerSpectrumAverage(inputSignal, samplingRate, numberOfSplits, percentOverlap, windowType);
 	}
 	
+	/**
+	 * Estimates the power spectrum of a signal with gaps. The invalid samples are filled by linear interpolation first.
+	 * @param inputSignal The signal
+	 * @param mask The validity of each sample of the signal
+	 * @param samplingRate The sampling rate
+	 * @param numberOfSplits The number of sections to average the spectrum over
+	 * @param percentOverlap The overlap between sections
+	 * @param windowType The window to apply to each section
+	 * @return The power spectrum, or null if there are no valid samples
+	 * @see MAJFCValidityMask#interpolateInvalid(double[], int, int, double[])
+	 */
+	public static Vector<Double> estimatePowerSpectrumAverage(Vector<Double> inputSignal, MAJFCValidityMask mask, double samplingRate, int numberOfSplits, int percentOverlap, MAJFCMathsPSDWindowType windowType) {
+		int numberOfValues = inputSignal.size();
+		double[] filledSignal = mask.interpolateInvalid(toPrimitiveArray(inputSignal, numberOfValues), 0, numberOfValues, null);
+		
+		if (filledSignal == null) {
+			return null;
+		}
+		
+		Vector<Double> filledInputSignal = new Vector<Double>(numberOfValues);
+		
+		for (int i = 0; i < numberOfValues; ++i) {
+			filledInputSignal.add(filledSignal[i]);
+		}
+		
+		return estimatePowerSpectrumAverage(filledInputSignal, samplingRate, numberOfSplits, percentOverlap, windowType);
+	}
+	
 	public static Vector<Double> estimatePowerSpectrumAverage(Vector<Double> inputSignal, double samplingRate, int numberOfSplits, int percentOverlap, MAJFCMathsPSDWindowType windowType) {
 		// Split into lengths
 		Vector<FourierTransformResults> ftrs = new Vector<FourierTransformResults>(numberOfSplits);
@@ -829,16 +1365,127 @@ public class MAJFCMaths {
 
 		double inputSignalMean = mean(inputSignal);
 		int numberOfValues = inputSignal.size();
+		double[] real = new double[numberOfValues];
+		double[] imaginary = new double[numberOfValues];
 		
-		FourierTransformResults complexInputSignal = new FourierTransformResults();
-
 		// Make a complex signal from the real signal, and pre-divide by N (numberOfValues) to remove necessity to divide by 2 at
 		// each step of the FFT (see Newland D.E. (1993), "An Introduction to Random Vibrations, Spectral & Wavelet Analysis").
 		for (int i = 0; i < numberOfValues; ++i) {
-			complexInputSignal.add(new ComplexNumber((inputSignal.get(i) - inputSignalMean)/numberOfValues, 0/numberOfValues));
+			real[i] = (inputSignal.get(i) - inputSignalMean)/numberOfValues;
+		}
+		
+		fastFourierTransform(real, imaginary, numberOfValues, false);
+		
+		FourierTransformResults outputSignal = new FourierTransformResults();
+		
+		for (int i = 0; i < numberOfValues; ++i) {
+			outputSignal.add(new ComplexNumber(real[i], imaginary[i]));
+		}
+		
+		return outputSignal;
+	}
+	
+	/**
+	 * Calculates the (complex) Fast Fourier Transform of a signal in place, using the iterative radix-2 Cooley-Tukey algorithm. The forward
+	 * transform is X[k] = sum over n of x[n].exp(-2.pi.i.k.n/N), unscaled; the inverse transform uses the opposite sign and divides by N,
+	 * so that an inverse transform undoes a forward one.
+	 * @param real The real parts of the signal, replaced by the real parts of its transform
+	 * @param imaginary The imaginary parts of the signal, replaced by the imaginary parts of its transform
+	 * @param length The number of values to transform (from the start of the arrays), which must be a power of 2
+	 * @param inverse If true the inverse transform is calculated
+	 * @return False (and the arrays are not changed) if length is not a power of 2
+	 */
+	public static boolean fastFourierTransform(double[] real, double[] imaginary, int length, boolean inverse) {
+		if (length < 1 || (length & (length - 1)) != 0) {
+			return false;
+		}
+		
+		// Bit-reversal permutation
+		for (int i = 1, j = 0; i < length; ++i) {
+			int bit = length >> 1;
+			
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			
+			j ^= bit;
+			
+			if (i < j) {
+				double temp = real[i];
+				real[i] = real[j];
+				real[j] = temp;
+				temp = imaginary[i];
+				imaginary[i] = imaginary[j];
+				imaginary[j] = temp;
+			}
+		}
+		
+		double[] twiddles = getTwiddleFactors(length);
+		double sign = inverse ? 1 : -1;
+		
+		for (int halfSize = 1; halfSize < length; halfSize <<= 1) {
+			int twiddleStep = length/(2 * halfSize);
+			
+			for (int start = 0; start < length; start += 2 * halfSize) {
+				for (int k = 0; k < halfSize; ++k) {
+					double twiddleReal = twiddles[2 * k * twiddleStep];
+					double twiddleImaginary = sign * twiddles[2 * k * twiddleStep + 1];
+					int even = start + k;
+					int odd = even + halfSize;
+					double oddReal = real[odd] * twiddleReal - imaginary[odd] * twiddleImaginary;
+					double oddImaginary = real[odd] * twiddleImaginary + imaginary[odd] * twiddleReal;
+					
+					real[odd] = real[even] - oddReal;
+					imaginary[odd] = imaginary[even] - oddImaginary;
+					real[even] += oddReal;
+					imaginary[even] += oddImaginary;
+				}
+			}
+		}
+		
+		if (inverse) {
+			double scale = 1.0/length;
+			
+			for (int i = 0; i < length; ++i) {
+				real[i] *= scale;
+				imaginary[i] *= scale;
+			}
 		}
 		
-		return fastFourierTransformRecursor(complexInputSignal);
+		return true;
+	}
+	
+	/**
+	 * Gets (calculating and caching the first time each size is used) the FFT twiddle factors cos(2.pi.k/N), sin(2.pi.k/N) for k < N/2
+	 * @param length N
+	 * @return The factors, interleaved cos, sin
+	 */
+	private static double[] getTwiddleFactors(int length) {
+		double[] twiddles = sTwiddleFactors.get(length);
+		
+		if (twiddles == null) {
+			int halfLength = length/2;
+			twiddles = new double[2 * Math.max(halfLength, 1)];
+			
+			for (int k = 0; k < halfLength; ++k) {
+				double angle = 2 * Math.PI * k/length;
+				twiddles[2 * k] = Math.cos(angle);
+				twiddles[2 * k + 1] = Math.sin(angle);
+			}
+			
+			sTwiddleFactors.put(length, twiddles);
+		}
+		
+		return twiddles;
+	}
+	
+	/**
+	 * Finds the smallest power of 2 which is no smaller than a value
+	 * @param value The value
+	 * @return The power of 2
+	 */
+	public static int powerOfTwoAtLeast(int value) {
+		return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
 	}
 	
 	/**
@@ -855,40 +1502,6 @@ public class MAJFCMaths {
 //		return fastFourierTransformRecursor(new FourierTransformResults(samplingRate/numberOfValues, complexInputSignal));
 //	}
 
-	private static FourierTransformResults fastFourierTransformRecursor(FourierTransformResults inputSignal) {
-		int numberOfValues = inputSignal.size();
-		FourierTransformResults outputSignal = new FourierTransformResults();
-		if (numberOfValues == 1) {
-			outputSignal.add(new ComplexNumber(inputSignal.getFirst()));
-			return outputSignal;
-		}
-
-		FourierTransformResults evenIndexedValues = new FourierTransformResults();
-		FourierTransformResults oddIndexedValues = new FourierTransformResults();
-		
-		for (int i = 0; i < numberOfValues; ++i) {
-			evenIndexedValues.add(inputSignal.get(i));
-			// Note that i is incremented here too, so it increases by 2 on each pass
-			oddIndexedValues.add(inputSignal.get(++i));
-		}
-		
-		FourierTransformResults fftOfEvenIndexedValues = fastFourierTransformRecursor(evenIndexedValues);
-		FourierTransformResults fftOfOddIndexedValues = fastFourierTransformRecursor(oddIndexedValues);
-
-		int numberOfValuesInOddAndEvenParts = fftOfEvenIndexedValues.size();
-		double factor = -2 * Math.PI / numberOfValues;
-
-		for (int k = 0; k < numberOfValuesInOddAndEvenParts; ++k) {
-			outputSignal.add(fftOfEvenIndexedValues.get(k).plus(fftOfOddIndexedValues.get(k).multipliedBy(new ComplexNumber(Math.cos(factor * k), Math.sin(factor * k)))));
-		}
-		
-		for (int k = 0; k < numberOfValuesInOddAndEvenParts; ++k) {
-			outputSignal.add(fftOfEvenIndexedValues.get(k).minus(fftOfOddIndexedValues.get(k).multipliedBy(new ComplexNumber(Math.cos(factor * k), Math.sin(factor * k)))));
-		}
-		
-		return outputSignal;
-	}
-	
 	/**
 	 * Pads (with zeroes) the size of the input list to the smallest power of 2 which is larger than the number of items in the list.
 	 * @return The number of padding zeroes added
@@ -1074,73 +1687,104 @@ public class MAJFCMaths {
 	 * @return A list of arrays containing value and occurrence count pairs, value in [0], occurrence count in [1]
 	 */
 	public static LinkedList<Double[]> probabilityDensityFunction(Vector<Double> values, boolean normalize, int pdfGranularity) {
+		int numberOfValues = values.size();
+		
+		return probabilityDensityFunction(toPrimitiveArray(values, numberOfValues), 0, numberOfValues, normalize, pdfGranularity);
+	}
+	
+	/**
+	 * Calculates the probability density function of a range of a set of values. The maximum value is included in the last interval.
+	 * @param values The values to calculate the pdf for
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param normalize If true, the pdf is normalized to give an integral of 1 over the whole value range
+	 * @param pdfGranularity The number of intervals to split the values range into
+	 * @return A list of arrays containing value and occurrence count pairs, value in [0], occurrence count in [1]
+	 * @see MAJFCHistogram
+	 */
+	public static LinkedList<Double[]> probabilityDensityFunction(double[] values, int offset, int length, boolean normalize, int pdfGranularity) {
+		return MAJFCHistogram.forValues(values, offset, length, pdfGranularity).toPDF(normalize);
+	}
+	
+	/**
+	 * Calculates a smooth (Gaussian kernel density) estimate of the probability density function of a set of values, with the bandwidth
+	 * chosen by Silverman's rule. Invalid (NaN) values are ignored.
+	 * @param values The values to calculate the pdf for
+	 * @param numberOfGridPoints The number of values to evaluate the pdf at
+	 * @return A list of arrays containing value and probability density pairs, value in [0], probability density in [1], or null if there
+	 * are fewer than two different valid values
+	 * @see MAJFCKernelDensityEstimate
+	 */
+	public static LinkedList<Double[]> kernelDensityEstimate(Vector<Double> values, int numberOfGridPoints) {
+		int numberOfValues = values.size();
+		MAJFCKernelDensityEstimate estimate = MAJFCKernelDensityEstimate.calculate(toPrimitiveArray(values, numberOfValues), 0, numberOfValues,
+				numberOfGridPoints, MAJFCKernelDensityEstimate.BANDWIDTH_SILVERMAN);
+		
+		return estimate == null ? null : estimate.toPDF();
+	}
+	
+	/**
+	 * Makes a probability density function in the form returned by probabilityDensityFunction from histogram bin counts
+	 * @param binCounts The number of values in each bin
+	 * @param minValue The lower bound of the first bin
+	 * @param step The width of each bin
+	 * @param numberOfValues The total number of values
+	 * @param normalize If true, the pdf is normalized to give an integral of 1 over the whole value range
+	 * @return A list of arrays containing value and occurrence count pairs, value in [0], occurrence count in [1]
+	 */
+	static LinkedList<Double[]> makePDF(long[] binCounts, double minValue, double step, long numberOfValues, boolean normalize) {
 		LinkedList<Double[]> pdf = new LinkedList<Double[]>();
-		final Double[] maxAndMin = findMaxAndMin(values);
-		final double maxValue = maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX];
-		final double minValue = maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX];
-		final double step = (maxValue - minValue)/pdfGranularity;
-		final int numberOfValues = values.size();
-		
-		for (int valuesIndex = 0; valuesIndex < numberOfValues; ++valuesIndex) {
-			Double value = values.get(valuesIndex);
-			double lowerBound = minValue;
-			double upperBound = lowerBound + step;
-
-			for (int pdfIndex = 0; pdfIndex < pdfGranularity; lowerBound += step, upperBound += step, ++pdfIndex) {
-				// Label this part of the velocity range with the mean value of the range
-				if (pdf.size() == pdfIndex) {
-					pdf.add(new Double[] { 0.0, 0.0 });
-					pdf.getLast()[PDF_VARIABLE_VALUE_INDEX] = (lowerBound + upperBound)/2;
-				}
-				
-				// The value is within this part of the range of velocities, so increment the number of occurrences
-				if (value >= lowerBound && value < upperBound) {
-					pdf.get(pdfIndex)[PDF_PDF_VALUE_INDEX] += 1.0/numberOfValues;
-					break;
-				}
-			}
-		}
+		int pdfGranularity = binCounts.length;
+		double[] pdfValues = new double[pdfGranularity];
 		
-		if (normalize == false) {
-			return pdf;
+		for (int pdfIndex = 0; pdfIndex < pdfGranularity; ++pdfIndex) {
+			pdfValues[pdfIndex] = ((double) binCounts[pdfIndex])/numberOfValues;
 		}
 		
-		// Normalisation
-		double integralSum = 0;
+		double scaleFactor = 1;
 		
-		for (int pdfIndex = 1; pdfIndex < pdfGranularity; ++pdfIndex) {
-			integralSum += (pdf.get(pdfIndex)[0] - pdf.get(pdfIndex - 1)[0]) * pdf.get(pdfIndex)[1];
+		if (normalize) {
+			scaleFactor = 1/MAJFCIntegration.midpoint(pdfValues, 0, pdfGranularity, step);
 		}
-
+		
 		for (int pdfIndex = 0; pdfIndex < pdfGranularity; ++pdfIndex) {
-			pdf.get(pdfIndex)[1] /= integralSum;
+			// Label each part of the range with its mid value
+			pdf.add(new Double[] { minValue + (pdfIndex + 0.5) * step, scaleFactor * pdfValues[pdfIndex] });
 		}
-
+		
 		return pdf;
 	}
 	
 	/**
 	 * Finds the maximum and minimum values from a list
 	 * @param values The values to find the maximum and minimum for
-	 * @return The maximum and minimum values in a Vector (elementAt(0) is max, elementAt(1) is min)
+	 * @return The maximum and minimum values in an array (indexed by FIND_MAX_AND_MIN_MAXIMUM_INDEX and FIND_MAX_AND_MIN_MINIMUM_INDEX)
 	 */
 	public static Double[] findMaxAndMin(List<Double> values) {
-		Double[] maxAndMin = new Double[2];
-		maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX] = Double.MAX_VALUE;
-		maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX] = Double.MIN_VALUE;
 		int numberOfValues = values.size();
+		double[] primitiveMaxAndMin = findMaxAndMin(toPrimitiveArray(values, numberOfValues), 0, numberOfValues);
+		Double[] maxAndMin = new Double[2];
+		maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX] = primitiveMaxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX];
+		maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX] = primitiveMaxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX];
 		
-		for (int i = 0; i < numberOfValues; ++i) {
-			Double value = values.get(i);
-			
-			if (value < maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX]) {
-				maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX] = value;
-			}
-			
-			if (value > maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX]) {
-				maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX] = value;
-			}
-		}
+		return maxAndMin;
+	}
+	
+	/**
+	 * Finds the maximum and minimum values from a range of an array. Invalid (NaN) values are ignored.
+	 * @param values The values to find the maximum and minimum for
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The maximum and minimum values in an array (indexed by FIND_MAX_AND_MIN_MAXIMUM_INDEX and FIND_MAX_AND_MIN_MINIMUM_INDEX),
+	 * both NaN if there are no valid values
+	 */
+	public static double[] findMaxAndMin(double[] values, int offset, int length) {
+		double[] extrema = new double[2];
+		MAJFCKernels.get().extrema(values, offset, length, extrema, null);
+		
+		double[] maxAndMin = new double[2];
+		maxAndMin[FIND_MAX_AND_MIN_MINIMUM_INDEX] = extrema[MAJFCKernels.EXTREMA_MINIMUM_INDEX];
+		maxAndMin[FIND_MAX_AND_MIN_MAXIMUM_INDEX] = extrema[MAJFCKernels.EXTREMA_MAXIMUM_INDEX];
 		
 		return maxAndMin;
 	}
@@ -0,0 +1,210 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * The first four moments of a set of data, calculated in a single pass using the Welford/Terriberry updates
+ * (see Terriberry T.B. (2007), "Computing Higher-Order Moments Online"). Invalid (NaN) values are counted but otherwise ignored.
+ * Variance, skewness and kurtosis are population values, consistent with the rest of MAJFCMaths.
+ * @author mikefedora
+ *
+ */
+public class MAJFCMoments {
+	private final long mCount;
+	private final long mValidCount;
+	private final double mMean;
+	private final double mM2;
+	private final double mM3;
+	private final double mM4;
+
+	/**
+	 * Constructor
+	 * @param count The total number of values, including invalid ones
+	 * @param validCount The number of valid values
+	 * @param mean The mean of the valid values
+	 * @param m2 The sum of the squared fluctuations from the mean
+	 * @param m3 The sum of the cubed fluctuations from the mean
+	 * @param m4 The sum of the fourth powers of the fluctuations from the mean
+	 */
+	MAJFCMoments(long count, long validCount, double mean, double m2, double m3, double m4) {
+		mCount = count;
+		mValidCount = validCount;
+		mMean = mean;
+		mM2 = m2;
+		mM3 = m3;
+		mM4 = m4;
+	}
+
+	/**
+	 * Calculates the moments of a set of data
+	 * @param data The data to calculate the moments for
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments calculate(double[] data) {
+		return calculate(data, 0, data.length);
+	}
+
+	/**
+	 * Calculates the moments of a range of a set of data
+	 * @param data The data to calculate the moments for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments calculate(double[] data, int offset, int length) {
+		MAJFCStatisticsAccumulator accumulator = new MAJFCStatisticsAccumulator();
+		int end = offset + length;
+
+		for (int i = offset; i < end; ++i) {
+			accumulator.add(data[i]);
+		}
+
+		return accumulator.getMoments();
+	}
+
+	/**
+	 * Calculates the moments of the valid values in a range of a set of data. Runs of invalid values are skipped without being read.
+	 * @param data The data to calculate the moments for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @param mask The validity of each element of data
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments calculate(double[] data, int offset, int length, MAJFCValidityMask mask) {
+		MAJFCStatisticsAccumulator accumulator = new MAJFCStatisticsAccumulator();
+		int end = offset + length;
+
+		for (int runStart = mask.nextValid(offset, end); runStart < end; runStart = mask.nextValid(runStart, end)) {
+			int runEnd = mask.nextInvalid(runStart, end);
+
+			for (; runStart < runEnd; ++runStart) {
+				accumulator.add(data[runStart]);
+			}
+		}
+
+		// The masked out values count as invalid values
+		accumulator.addInvalid(length - accumulator.getCount());
+
+		return accumulator.getMoments();
+	}
+
+	/**
+	 * Calculates the moments of the remaining elements (position to limit) of a buffer. The buffer's position is not changed.
+	 * @param data The data to calculate the moments for
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments calculate(DoubleBuffer data) {
+		if (data.hasArray()) {
+			return calculate(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		}
+
+		MAJFCStatisticsAccumulator accumulator = new MAJFCStatisticsAccumulator();
+		int end = data.limit();
+
+		for (int i = data.position(); i < end; ++i) {
+			accumulator.add(data.get(i));
+		}
+
+		return accumulator.getMoments();
+	}
+
+	/**
+	 * @return The total number of values, including invalid ones
+	 */
+	public long getCount() {
+		return mCount;
+	}
+
+	/**
+	 * @return The number of valid (non-NaN) values
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+
+	/**
+	 * @return The arithmetic mean, or NaN if there are no valid values
+	 */
+	public double getMean() {
+		return mValidCount == 0 ? Double.NaN : mMean;
+	}
+
+	/**
+	 * @return The (population) variance
+	 */
+	public double getVariance() {
+		return mM2/mValidCount;
+	}
+
+	/**
+	 * @return The (population) standard deviation
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return The root mean square
+	 */
+	public double getRMS() {
+		return Math.sqrt(mMean * mMean + getVariance());
+	}
+
+	/**
+	 * @return The skewness
+	 */
+	public double getSkewness() {
+		return Math.sqrt((double) mValidCount) * mM3/Math.pow(mM2, 1.5);
+	}
+
+	/**
+	 * @return The kurtosis (3 for a normal distribution)
+	 */
+	public double getKurtosis() {
+		return mValidCount * mM4/(mM2 * mM2);
+	}
+
+	/**
+	 * @return The excess kurtosis (0 for a normal distribution)
+	 */
+	public double getExcessKurtosis() {
+		return getKurtosis() - 3;
+	}
+
+	/**
+	 * @return The sum of the squared fluctuations from the mean
+	 */
+	double getM2() {
+		return mM2;
+	}
+
+	/**
+	 * @return The sum of the cubed fluctuations from the mean
+	 */
+	double getM3() {
+		return mM3;
+	}
+
+	/**
+	 * @return The sum of the fourth powers of the fluctuations from the mean
+	 */
+	double getM4() {
+		return mM4;
+	}
+}
@@ -0,0 +1,414 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.LinkedList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel versions of the MAJFCMaths reductions for very long primitive series. Above PARALLEL_THRESHOLD values the series is split
+ * recursively across the common ForkJoinPool, and the partial results are combined with compensated (Neumaier) summation or the
+ * pairwise moment combinations of MAJFCStatisticsAccumulator, so the results are at least as accurate as the sequential versions.
+ * Below the threshold the sequential MAJFCMaths methods are used. Invalid (NaN) values are ignored, as in MAJFCMaths.
+ * @author mikefedora
+ *
+ */
+public class MAJFCParallelMaths {
+	/**
+	 * Series shorter than this are processed sequentially
+	 */
+	public static final int PARALLEL_THRESHOLD = 1 << 17;
+	
+	/**
+	 * The number of values each fork-join task processes directly, rather than splitting further
+	 */
+	static final int LEAF_LENGTH = 1 << 15;
+
+	/**
+	 * Calculates the arithmetic mean of a range of a set of data
+	 * @param data The data to calculate the mean for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated mean
+	 */
+	public static double mean(double[] data, int offset, int length) {
+		if (length < PARALLEL_THRESHOLD) {
+			return MAJFCMaths.mean(data, offset, length);
+		}
+		
+		double[] sums = ForkJoinPool.commonPool().invoke(new SumsTask(data, offset, length));
+		
+		return (sums[SumsTask.SUM_INDEX] + sums[SumsTask.SUM_COMPENSATION_INDEX])/sums[SumsTask.VALID_COUNT_INDEX];
+	}
+	
+	/**
+	 * Calculates the RMS of a range of a set of data
+	 * @param data The data to calculate the RMS for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated RMS value
+	 */
+	public static double rms(double[] data, int offset, int length) {
+		if (length < PARALLEL_THRESHOLD) {
+			return MAJFCMaths.rms(data, offset, length);
+		}
+		
+		double[] sums = ForkJoinPool.commonPool().invoke(new SumsTask(data, offset, length));
+		
+		return Math.sqrt((sums[SumsTask.SUM_OF_SQUARES_INDEX] + sums[SumsTask.SUM_OF_SQUARES_COMPENSATION_INDEX])/sums[SumsTask.VALID_COUNT_INDEX]);
+	}
+	
+	/**
+	 * Calculates the standard deviation of a range of a set of data
+	 * @param data The data to calculate the standard deviation for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated standard deviation
+	 */
+	public static double standardDeviation(double[] data, int offset, int length) {
+		return moments(data, offset, length).getStandardDeviation();
+	}
+	
+	/**
+	 * Calculates the count, mean, variance, RMS, skewness and kurtosis of a range of a set of data
+	 * @param data The data to calculate the moments for
+	 * @param offset The index of the first element to use
+	 * @param length The number of elements to use
+	 * @return The calculated moments
+	 */
+	public static MAJFCMoments moments(double[] data, int offset, int length) {
+		if (length < PARALLEL_THRESHOLD) {
+			return MAJFCMoments.calculate(data, offset, length);
+		}
+		
+		return ForkJoinPool.commonPool().invoke(new MomentsTask(data, offset, length)).getMoments();
+	}
+	
+	/**
+	 * Calculates the covariance between two ranges of data, using only the sample pairs for which neither value is invalid (NaN)
+	 * @param dataSet1 The first data set
+	 * @param dataSet2 The second data set
+	 * @param offset The index of the first element to use (in both data sets)
+	 * @param length The number of elements to use
+	 * @return The calculated covariance
+	 */
+	public static double covariance(double[] dataSet1, double[] dataSet2, int offset, int length) {
+		if (length < PARALLEL_THRESHOLD) {
+			return MAJFCMaths.covariance(dataSet1, dataSet2, offset, length);
+		}
+		
+		double[] coMoment = ForkJoinPool.commonPool().invoke(new CoMomentTask(dataSet1, dataSet2, offset, length));
+		
+		return coMoment[CoMomentTask.CO_MOMENT_INDEX]/coMoment[CoMomentTask.VALID_COUNT_INDEX];
+	}
+	
+	/**
+	 * Finds the maximum and minimum values from a range of an array
+	 * @param values The values to find the maximum and minimum for
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The maximum and minimum values in an array (indexed by MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX and
+	 * MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX), both NaN if there are no valid values
+	 */
+	public static double[] findMaxAndMin(double[] values, int offset, int length) {
+		if (length < PARALLEL_THRESHOLD) {
+			return MAJFCMaths.findMaxAndMin(values, offset, length);
+		}
+		
+		return ForkJoinPool.commonPool().invoke(new MaxAndMinTask(values, offset, length));
+	}
+	
+	/**
+	 * Calculates the probability density function of a range of a set of values
+	 * @see MAJFCHistogram
+	 * @param values The values to calculate the pdf for
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param normalize If true, the pdf is normalized to give an integral of 1 over the whole value range
+	 * @param pdfGranularity The number of intervals to split the values range into
+	 * @return A list of arrays containing value and occurrence count pairs, value in [0], occurrence count in [1]
+	 */
+	public static LinkedList<Double[]> probabilityDensityFunction(double[] values, int offset, int length, boolean normalize, int pdfGranularity) {
+		return MAJFCHistogram.forValues(values, offset, length, pdfGranularity).toPDF(normalize);
+	}
+	
+	/**
+	 * Adds a value to a Neumaier compensated sum
+	 * @param sums The array holding the sum, with its running compensation in the next element
+	 * @param index The index of the sum in sums
+	 * @param value The value to add
+	 */
+	private static void compensatedAdd(double[] sums, int index, double value) {
+		double sum = sums[index];
+		double newSum = sum + value;
+		
+		if (Math.abs(sum) >= Math.abs(value)) {
+			sums[index + 1] += (sum - newSum) + value;
+		} else {
+			sums[index + 1] += (value - newSum) + sum;
+		}
+		
+		sums[index] = newSum;
+	}
+	
+	/**
+	 * Base class for the fork-join tasks, which split their range in two until it is no longer than LEAF_LENGTH
+	 */
+	@SuppressWarnings("serial")
+	static abstract class RangeTask<ResultType> extends RecursiveTask<ResultType> {
+		protected final int mOffset;
+		protected final int mLength;
+		
+		protected RangeTask(int offset, int length) {
+			mOffset = offset;
+			mLength = length;
+		}
+		
+		@Override
+		protected ResultType compute() {
+			if (mLength <= LEAF_LENGTH) {
+				return computeLeaf();
+			}
+			
+			int halfLength = mLength/2;
+			RangeTask<ResultType> firstHalf = makeSubtask(mOffset, halfLength);
+			RangeTask<ResultType> secondHalf = makeSubtask(mOffset + halfLength, mLength - halfLength);
+			
+			firstHalf.fork();
+			ResultType secondResult = secondHalf.compute();
+			
+			return combine(firstHalf.join(), secondResult);
+		}
+		
+		protected abstract RangeTask<ResultType> makeSubtask(int offset, int length);
+		
+		protected abstract ResultType computeLeaf();
+		
+		protected abstract ResultType combine(ResultType first, ResultType second);
+	}
+	
+	/**
+	 * Compensated sum and sum of squares, and valid count
+	 */
+	@SuppressWarnings("serial")
+	private static class SumsTask extends RangeTask<double[]> {
+		private static final int SUM_INDEX = 0;
+		private static final int SUM_COMPENSATION_INDEX = 1;
+		private static final int SUM_OF_SQUARES_INDEX = 2;
+		private static final int SUM_OF_SQUARES_COMPENSATION_INDEX = 3;
+		private static final int VALID_COUNT_INDEX = 4;
+		
+		private final double[] mData;
+		
+		private SumsTask(double[] data, int offset, int length) {
+			super(offset, length);
+			mData = data;
+		}
+
+		@Override
+		protected RangeTask<double[]> makeSubtask(int offset, int length) {
+			return new SumsTask(mData, offset, length);
+		}
+
+		@Override
+		protected double[] computeLeaf() {
+			double[] sums = new double[5];
+			int end = mOffset + mLength;
+			int numberOfValidValues = 0;
+			
+			for (int i = mOffset; i < end; ++i) {
+				double value = mData[i];
+				
+				if (value != value) {
+					continue;
+				}
+				
+				compensatedAdd(sums, SUM_INDEX, value);
+				compensatedAdd(sums, SUM_OF_SQUARES_INDEX, value * value);
+				++numberOfValidValues;
+			}
+			
+			sums[VALID_COUNT_INDEX] = numberOfValidValues;
+			
+			return sums;
+		}
+
+		@Override
+		protected double[] combine(double[] first, double[] second) {
+			compensatedAdd(first, SUM_INDEX, second[SUM_INDEX]);
+			first[SUM_COMPENSATION_INDEX] += second[SUM_COMPENSATION_INDEX];
+			compensatedAdd(first, SUM_OF_SQUARES_INDEX, second[SUM_OF_SQUARES_INDEX]);
+			first[SUM_OF_SQUARES_COMPENSATION_INDEX] += second[SUM_OF_SQUARES_COMPENSATION_INDEX];
+			first[VALID_COUNT_INDEX] += second[VALID_COUNT_INDEX];
+			
+			return first;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class MomentsTask extends RangeTask<MAJFCStatisticsAccumulator> {
+		private final double[] mData;
+		
+		private MomentsTask(double[] data, int offset, int length) {
+			super(offset, length);
+			mData = data;
+		}
+
+		@Override
+		protected RangeTask<MAJFCStatisticsAccumulator> makeSubtask(int offset, int length) {
+			return new MomentsTask(mData, offset, length);
+		}
+
+		@Override
+		protected MAJFCStatisticsAccumulator computeLeaf() {
+			return new MAJFCStatisticsAccumulator(MAJFCMoments.calculate(mData, mOffset, mLength));
+		}
+
+		@Override
+		protected MAJFCStatisticsAccumulator combine(MAJFCStatisticsAccumulator first, MAJFCStatisticsAccumulator second) {
+			first.merge(second);
+			
+			return first;
+		}
+	}
+	
+	/**
+	 * Valid pair count, means and co-moment (sum of fluctuation products) of two series, combined pairwise
+	 */
+	@SuppressWarnings("serial")
+	private static class CoMomentTask extends RangeTask<double[]> {
+		private static final int VALID_COUNT_INDEX = 0;
+		private static final int MEAN_1_INDEX = 1;
+		private static final int MEAN_2_INDEX = 2;
+		private static final int CO_MOMENT_INDEX = 3;
+		
+		private final double[] mDataSet1;
+		private final double[] mDataSet2;
+		
+		private CoMomentTask(double[] dataSet1, double[] dataSet2, int offset, int length) {
+			super(offset, length);
+			mDataSet1 = dataSet1;
+			mDataSet2 = dataSet2;
+		}
+
+		@Override
+		protected RangeTask<double[]> makeSubtask(int offset, int length) {
+			return new CoMomentTask(mDataSet1, mDataSet2, offset, length);
+		}
+
+		@Override
+		protected double[] computeLeaf() {
+			double total1 = 0, total2 = 0;
+			int numberOfValidPairs = 0;
+			int end = mOffset + mLength;
+			
+			// Means over the valid pairs only...
+			for (int i = mOffset; i < end; ++i) {
+				double datum1 = mDataSet1[i], datum2 = mDataSet2[i];
+				
+				if (datum1 != datum1 || datum2 != datum2) {
+					continue;
+				}
+				
+				total1 += datum1;
+				total2 += datum2;
+				++numberOfValidPairs;
+			}
+			
+			double mean1 = numberOfValidPairs == 0 ? 0 : total1/numberOfValidPairs;
+			double mean2 = numberOfValidPairs == 0 ? 0 : total2/numberOfValidPairs;
+			
+			// ...then the fluctuation products about them
+			double coMoment = 0;
+			
+			for (int i = mOffset; i < end; ++i) {
+				double datum1 = mDataSet1[i], datum2 = mDataSet2[i];
+				
+				if (datum1 != datum1 || datum2 != datum2) {
+					continue;
+				}
+				
+				coMoment += (datum1 - mean1) * (datum2 - mean2);
+			}
+			
+			return new double[] { numberOfValidPairs, mean1, mean2, coMoment };
+		}
+
+		@Override
+		protected double[] combine(double[] first, double[] second) {
+			double nA = first[VALID_COUNT_INDEX];
+			double nB = second[VALID_COUNT_INDEX];
+			double n = nA + nB;
+			
+			if (nB == 0) {
+				return first;
+			}
+			
+			if (nA == 0) {
+				return second;
+			}
+			
+			double delta1 = second[MEAN_1_INDEX] - first[MEAN_1_INDEX];
+			double delta2 = second[MEAN_2_INDEX] - first[MEAN_2_INDEX];
+			
+			first[CO_MOMENT_INDEX] += second[CO_MOMENT_INDEX] + delta1 * delta2 * nA * nB/n;
+			first[MEAN_1_INDEX] += delta1 * nB/n;
+			first[MEAN_2_INDEX] += delta2 * nB/n;
+			first[VALID_COUNT_INDEX] = n;
+			
+			return first;
+		}
+	}
+	
+	@SuppressWarnings("serial")
+	private static class MaxAndMinTask extends RangeTask<double[]> {
+		private final double[] mData;
+		
+		private MaxAndMinTask(double[] data, int offset, int length) {
+			super(offset, length);
+			mData = data;
+		}
+
+		@Override
+		protected RangeTask<double[]> makeSubtask(int offset, int length) {
+			return new MaxAndMinTask(mData, offset, length);
+		}
+
+		@Override
+		protected double[] computeLeaf() {
+			return MAJFCMaths.findMaxAndMin(mData, mOffset, mLength);
+		}
+
+		@Override
+		protected double[] combine(double[] first, double[] second) {
+			int minIndex = MAJFCMaths.FIND_MAX_AND_MIN_MINIMUM_INDEX;
+			int maxIndex = MAJFCMaths.FIND_MAX_AND_MIN_MAXIMUM_INDEX;
+			
+			// A range with no valid values has NaN extremes, which the comparisons ignore
+			if (!(second[minIndex] >= first[minIndex])) {
+				first[minIndex] = second[minIndex] != second[minIndex] ? first[minIndex] : second[minIndex];
+			}
+			
+			if (!(second[maxIndex] <= first[maxIndex])) {
+				first[maxIndex] = second[maxIndex] != second[maxIndex] ? first[maxIndex] : second[maxIndex];
+			}
+			
+			return first;
+		}
+	}
+}
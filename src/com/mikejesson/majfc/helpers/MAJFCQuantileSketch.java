@@ -0,0 +1,479 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+
+/**
+ * A bounded-memory, mergeable sketch of the distribution of a stream of values, from which medians, percentiles and the median absolute
+ * deviation can be estimated without keeping the values. This is a KLL sketch (see Karnin Z., Lang K. & Liberty E. (2016), "Optimal
+ * Quantile Approximation in Streams"): values are buffered in a hierarchy of compactors, and when a compactor fills it is sorted and every
+ * other value is promoted to the next level up with twice the weight. Compaction offsets alternate, so results are reproducible.
+ * 
+ * The accuracy parameter k sets the error bound: a returned quantile's true rank is within about getNormalisedRankError() of the rank
+ * requested. The sketch holds roughly 3k values whatever the length of the stream (e.g. under 5 kB for the default k of 200).
+ * The exact minimum and maximum are also kept.
+ * 
+ * A sketch is not thread-safe; give each thread its own and merge them when the threads have finished.
+ * @author mikefedora
+ *
+ */
+public class MAJFCQuantileSketch {
+	public static final int DEFAULT_K = 200;
+	
+	private static final int MINIMUM_K = 8;
+	private static final int MINIMUM_LEVEL_CAPACITY = 2;
+	private static final double LEVEL_CAPACITY_RATIO = 2.0/3.0;
+	
+	private final int mK;
+	private double[][] mLevels;
+	private int[] mLevelSizes;
+	private int mNumberOfLevels;
+	private int mCompactionParities;
+	private long mCount;
+	private long mValidCount;
+	private double mMin;
+	private double mMax;
+	
+	// Sorted view of the sketch, built lazily for queries and discarded whenever the sketch changes
+	private double[] mViewValues;
+	private long[] mViewCumulativeWeights;
+
+	/**
+	 * Constructor, with the default accuracy
+	 */
+	public MAJFCQuantileSketch() {
+		this(DEFAULT_K);
+	}
+	
+	/**
+	 * Constructor
+	 * @param k The accuracy parameter. Larger values give smaller errors and use more memory. Values below 8 are raised to 8.
+	 */
+	public MAJFCQuantileSketch(int k) {
+		mK = Math.max(k, MINIMUM_K);
+		mLevels = new double[1][mK];
+		mLevelSizes = new int[1];
+		mNumberOfLevels = 1;
+		mMin = Double.POSITIVE_INFINITY;
+		mMax = Double.NEGATIVE_INFINITY;
+	}
+	
+	/**
+	 * Creates a sketch with a given error bound
+	 * @param normalisedRankError The acceptable rank error, as a fraction of the number of values (e.g. 0.01 for 1%)
+	 * @return The sketch
+	 */
+	public static MAJFCQuantileSketch forRankError(double normalisedRankError) {
+		return new MAJFCQuantileSketch((int) Math.ceil(Math.pow(2.296/normalisedRankError, 1/0.9723)));
+	}
+	
+	/**
+	 * @return The approximate rank error of quantiles returned by this sketch, as a fraction of the number of values
+	 */
+	public double getNormalisedRankError() {
+		// Empirical fit for KLL sketches with the standard 2/3 capacity ratio
+		return 2.296/Math.pow(mK, 0.9723);
+	}
+	
+	/**
+	 * Adds a value. Invalid (NaN) values are counted but otherwise ignored.
+	 * @param value The value to add
+	 */
+	public void add(double value) {
+		++mCount;
+		
+		if (value != value) {
+			return;
+		}
+
+		mViewValues = null;
+		++mValidCount;
+		
+		if (value < mMin) {
+			mMin = value;
+		}
+		
+		if (value > mMax) {
+			mMax = value;
+		}
+		
+		if (mLevelSizes[0] == mLevels[0].length) {
+			mLevels[0] = Arrays.copyOf(mLevels[0], 2 * mLevels[0].length);
+		}
+		
+		mLevels[0][mLevelSizes[0]++] = value;
+		
+		if (mLevelSizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+	
+	/**
+	 * Adds a block of values
+	 * @param values The values to add from
+	 * @param offset The index of the first value to add
+	 * @param length The number of values to add
+	 */
+	public void addAll(double[] values, int offset, int length) {
+		int end = offset + length;
+		
+		for (int i = offset; i < end; ++i) {
+			add(values[i]);
+		}
+	}
+	
+	/**
+	 * Merges another sketch into this one. The other sketch is not changed.
+	 * @param other The sketch to merge in
+	 */
+	public void merge(MAJFCQuantileSketch other) {
+		mViewValues = null;
+		
+		while (mNumberOfLevels < other.mNumberOfLevels) {
+			addLevel();
+		}
+		
+		for (int level = 0; level < other.mNumberOfLevels; ++level) {
+			int otherSize = other.mLevelSizes[level];
+			int newSize = mLevelSizes[level] + otherSize;
+			
+			if (newSize > mLevels[level].length) {
+				mLevels[level] = Arrays.copyOf(mLevels[level], newSize);
+			}
+			
+			System.arraycopy(other.mLevels[level], 0, mLevels[level], mLevelSizes[level], otherSize);
+			mLevelSizes[level] = newSize;
+		}
+		
+		mCount += other.mCount;
+		mValidCount += other.mValidCount;
+		mMin = Math.min(mMin, other.mMin);
+		mMax = Math.max(mMax, other.mMax);
+		
+		compress();
+	}
+	
+	/**
+	 * @return The total number of values added, including invalid ones
+	 */
+	public long getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * @return The number of valid (non-NaN) values added
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+	
+	/**
+	 * @return The exact minimum of the values added, or NaN if there are none
+	 */
+	public double getMin() {
+		return mValidCount == 0 ? Double.NaN : mMin;
+	}
+	
+	/**
+	 * @return The exact maximum of the values added, or NaN if there are none
+	 */
+	public double getMax() {
+		return mValidCount == 0 ? Double.NaN : mMax;
+	}
+	
+	/**
+	 * Estimates a percentile of the values added
+	 * @param percentile The percentile, between 0 and 100
+	 * @return The estimated percentile, or NaN if no valid values have been added
+	 */
+	public double percentile(double percentile) {
+		return quantile(percentile/100);
+	}
+	
+	/**
+	 * Estimates the median of the values added
+	 * @return The estimated median, or NaN if no valid values have been added
+	 */
+	public double median() {
+		return quantile(0.5);
+	}
+	
+	/**
+	 * Estimates a quantile of the values added
+	 * @param fraction The quantile, between 0 and 1
+	 * @return The estimated quantile, or NaN if no valid values have been added
+	 */
+	public double quantile(double fraction) {
+		if (mValidCount == 0) {
+			return Double.NaN;
+		}
+		
+		if (fraction <= 0) {
+			return mMin;
+		}
+		
+		if (fraction >= 1) {
+			return mMax;
+		}
+		
+		buildSortedView();
+		
+		return weightedQuantile(mViewValues, mViewCumulativeWeights, fraction);
+	}
+	
+	/**
+	 * Estimates the fraction of the values added which are no greater than the given value
+	 * @param value The value
+	 * @return The estimated normalised rank, between 0 and 1, or NaN if no valid values have been added
+	 */
+	public double rank(double value) {
+		if (mValidCount == 0) {
+			return Double.NaN;
+		}
+		
+		buildSortedView();
+		
+		int index = upperBound(mViewValues, value);
+		
+		return index == 0 ? 0 : (double) mViewCumulativeWeights[index - 1]/mViewCumulativeWeights[mViewValues.length - 1];
+	}
+	
+	/**
+	 * Estimates the median absolute deviation (the median of the absolute deviations from the median) of the values added, by taking
+	 * the weighted median of the retained values' deviations from the estimated median
+	 * @return The estimated median absolute deviation, or NaN if no valid values have been added
+	 */
+	public double medianAbsoluteDeviation() {
+		double median = median();
+		
+		if (median != median) {
+			return Double.NaN;
+		}
+		
+		int numberOfRetained = mViewValues.length;
+		double[] deviations = new double[numberOfRetained];
+		long[] weights = new long[numberOfRetained];
+		
+		// The view is sorted, so the deviations are two sorted runs (descending below the median, ascending above it) which
+		// can be merged in linear time
+		int above = upperBound(mViewValues, median);
+		int below = above - 1;
+		int next = above;
+		
+		for (int i = 0; i < numberOfRetained; ++i) {
+			int source;
+			
+			if (below < 0) {
+				source = next++;
+			} else if (next >= numberOfRetained) {
+				source = below--;
+			} else if (median - mViewValues[below] <= mViewValues[next] - median) {
+				source = below--;
+			} else {
+				source = next++;
+			}
+			
+			deviations[i] = Math.abs(mViewValues[source] - median);
+			weights[i] = mViewCumulativeWeights[source] - (source == 0 ? 0 : mViewCumulativeWeights[source - 1]);
+		}
+		
+		for (int i = 1; i < numberOfRetained; ++i) {
+			weights[i] += weights[i - 1];
+		}
+		
+		return weightedQuantile(deviations, weights, 0.5);
+	}
+	
+	/**
+	 * @return The number of values currently retained by the sketch
+	 */
+	public int getNumberOfRetainedValues() {
+		int numberOfRetained = 0;
+		
+		for (int level = 0; level < mNumberOfLevels; ++level) {
+			numberOfRetained += mLevelSizes[level];
+		}
+		
+		return numberOfRetained;
+	}
+	
+	private int capacity(int level) {
+		int depth = mNumberOfLevels - 1 - level;
+		
+		return Math.max(MINIMUM_LEVEL_CAPACITY, (int) Math.ceil(mK * Math.pow(LEVEL_CAPACITY_RATIO, depth)));
+	}
+	
+	private int totalCapacity() {
+		int totalCapacity = 0;
+		
+		for (int level = 0; level < mNumberOfLevels; ++level) {
+			totalCapacity += capacity(level);
+		}
+		
+		return totalCapacity;
+	}
+	
+	private void addLevel() {
+		mLevels = Arrays.copyOf(mLevels, mNumberOfLevels + 1);
+		mLevelSizes = Arrays.copyOf(mLevelSizes, mNumberOfLevels + 1);
+		mLevels[mNumberOfLevels] = new double[MINIMUM_LEVEL_CAPACITY];
+		++mNumberOfLevels;
+	}
+	
+	/**
+	 * Compacts the lowest over-full level, repeatedly, until the sketch is within its total capacity
+	 */
+	private void compress() {
+		while (getNumberOfRetainedValues() >= totalCapacity()) {
+			int level = 0;
+			
+			while (mLevelSizes[level] < capacity(level)) {
+				++level;
+			}
+			
+			if (level == mNumberOfLevels - 1) {
+				addLevel();
+			}
+			
+			compact(level);
+		}
+	}
+	
+	/**
+	 * Sorts a level and promotes every other value to the level above. If the level holds an odd number of values the first one is
+	 * left behind.
+	 */
+	private void compact(int level) {
+		double[] values = mLevels[level];
+		int size = mLevelSizes[level];
+		int start = size % 2;
+		
+		Arrays.sort(values, start, size);
+		
+		// Alternate between promoting the odd- and even-ranked values each time a level is compacted
+		int offset = (mCompactionParities >>> level) & 1;
+		mCompactionParities ^= 1 << level;
+		
+		int numberToPromote = (size - start)/2;
+		int upperLevel = level + 1;
+		int upperSize = mLevelSizes[upperLevel];
+		
+		if (upperSize + numberToPromote > mLevels[upperLevel].length) {
+			mLevels[upperLevel] = Arrays.copyOf(mLevels[upperLevel], Math.max(upperSize + numberToPromote, 2 * mLevels[upperLevel].length));
+		}
+		
+		for (int i = start + offset; i < size; i += 2) {
+			mLevels[upperLevel][upperSize++] = values[i];
+		}
+		
+		mLevelSizes[upperLevel] = upperSize;
+		mLevelSizes[level] = start;
+	}
+	
+	private void buildSortedView() {
+		if (mViewValues != null) {
+			return;
+		}
+		
+		int numberOfRetained = getNumberOfRetainedValues();
+		double[] values = new double[numberOfRetained];
+		long[] weights = new long[numberOfRetained];
+		double[] mergedValues = new double[numberOfRetained];
+		long[] mergedWeights = new long[numberOfRetained];
+		int viewSize = 0;
+		
+		// Merge the sorted levels into the view one at a time
+		for (int level = 0; level < mNumberOfLevels; ++level) {
+			int levelSize = mLevelSizes[level];
+			
+			if (levelSize == 0) {
+				continue;
+			}
+			
+			double[] levelValues = Arrays.copyOf(mLevels[level], levelSize);
+			Arrays.sort(levelValues);
+			long weight = 1L << level;
+			
+			int i = 0, j = 0, k = 0;
+			
+			while (i < viewSize || j < levelSize) {
+				if (j == levelSize || (i < viewSize && values[i] <= levelValues[j])) {
+					mergedValues[k] = values[i];
+					mergedWeights[k++] = weights[i++];
+				} else {
+					mergedValues[k] = levelValues[j++];
+					mergedWeights[k++] = weight;
+				}
+			}
+			
+			viewSize = k;
+			double[] tempValues = values;
+			values = mergedValues;
+			mergedValues = tempValues;
+			long[] tempWeights = weights;
+			weights = mergedWeights;
+			mergedWeights = tempWeights;
+		}
+		
+		for (int i = 1; i < viewSize; ++i) {
+			weights[i] += weights[i - 1];
+		}
+		
+		mViewValues = values;
+		mViewCumulativeWeights = weights;
+	}
+	
+	private static double weightedQuantile(double[] values, long[] cumulativeWeights, double fraction) {
+		int last = values.length - 1;
+		double targetWeight = fraction * cumulativeWeights[last];
+		
+		// First value whose cumulative weight reaches the target
+		int low = 0, high = last;
+		
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			
+			if (cumulativeWeights[middle] < targetWeight) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		
+		return values[low];
+	}
+	
+	/**
+	 * @return The index of the first value greater than the given value
+	 */
+	private static int upperBound(double[] values, double value) {
+		int low = 0, high = values.length;
+		
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			
+			if (values[middle] <= value) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		
+		return low;
+	}
+}
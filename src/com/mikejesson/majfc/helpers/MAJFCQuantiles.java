@@ -0,0 +1,254 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+
+/**
+ * Order statistics (median, percentiles, interquartile range and median absolute deviation) of primitive series in linear time,
+ * using introselect rather than a full sort. The valid (non-NaN) values are copied into a scratch buffer which is kept between calls,
+ * so a single instance can be reused for many series without further allocation. The input data is never changed.
+ * 
+ * Percentiles are interpolated linearly between the closest ranks, so the 50th percentile is the usual median (the mean of the two
+ * central values when there are an even number of them).
+ * 
+ * An instance is not thread-safe; use one per thread.
+ * @author mikefedora
+ *
+ */
+public class MAJFCQuantiles {
+	private double[] mScratch;
+	private int mNumberOfValues;
+
+	/**
+	 * Constructor
+	 */
+	public MAJFCQuantiles() {
+		mScratch = new double[0];
+	}
+	
+	/**
+	 * Constructor
+	 * @param expectedLength The length of the series expected, so that the scratch buffer can be allocated up front
+	 */
+	public MAJFCQuantiles(int expectedLength) {
+		mScratch = new double[expectedLength];
+	}
+	
+	/**
+	 * Calculates the median of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The median, or NaN if there are no valid values
+	 */
+	public double median(double[] data, int offset, int length) {
+		return percentile(data, offset, length, 50);
+	}
+	
+	/**
+	 * Calculates a percentile of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param percentile The percentile to calculate, between 0 and 100
+	 * @return The percentile, or NaN if there are no valid values
+	 */
+	public double percentile(double[] data, int offset, int length, double percentile) {
+		load(data, offset, length);
+		
+		return percentileOfScratch(percentile);
+	}
+	
+	/**
+	 * Calculates several percentiles of a range of a series. The data is only copied once.
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param percentiles The percentiles to calculate, each between 0 and 100
+	 * @param output The array to write the percentiles into, or null to allocate one
+	 * @return The percentiles, in the order requested
+	 */
+	public double[] percentiles(double[] data, int offset, int length, double[] percentiles, double[] output) {
+		if (output == null) {
+			output = new double[percentiles.length];
+		}
+		
+		load(data, offset, length);
+
+		// Each selection leaves the scratch buffer a permutation of the values, so later selections are still correct (and
+		// usually faster, as the buffer is already partly ordered)
+		for (int i = 0; i < percentiles.length; ++i) {
+			output[i] = percentileOfScratch(percentiles[i]);
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Calculates the interquartile range (75th percentile - 25th percentile) of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The interquartile range, or NaN if there are no valid values
+	 */
+	public double interquartileRange(double[] data, int offset, int length) {
+		load(data, offset, length);
+		double lowerQuartile = percentileOfScratch(25);
+		
+		return percentileOfScratch(75) - lowerQuartile;
+	}
+	
+	/**
+	 * Calculates the median absolute deviation (the median of the absolute deviations from the median) of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The median absolute deviation, or NaN if there are no valid values
+	 */
+	public double medianAbsoluteDeviation(double[] data, int offset, int length) {
+		load(data, offset, length);
+		double median = percentileOfScratch(50);
+		
+		for (int i = 0; i < mNumberOfValues; ++i) {
+			mScratch[i] = Math.abs(mScratch[i] - median);
+		}
+		
+		return percentileOfScratch(50);
+	}
+	
+	/**
+	 * Copies the valid values of the range into the scratch buffer, growing it if necessary
+	 */
+	private void load(double[] data, int offset, int length) {
+		if (mScratch.length < length) {
+			mScratch = new double[length];
+		}
+		
+		int end = offset + length;
+		int n = 0;
+		
+		for (int i = offset; i < end; ++i) {
+			double value = data[i];
+			
+			if (value == value) {
+				mScratch[n++] = value;
+			}
+		}
+		
+		mNumberOfValues = n;
+	}
+	
+	private double percentileOfScratch(double percentile) {
+		int n = mNumberOfValues;
+		
+		if (n == 0) {
+			return Double.NaN;
+		}
+		
+		double rank = (n - 1) * Math.min(Math.max(percentile, 0), 100)/100;
+		int lowerRank = (int) Math.floor(rank);
+		double fraction = rank - lowerRank;
+		
+		select(mScratch, 0, n - 1, lowerRank);
+		double lowerValue = mScratch[lowerRank];
+		
+		if (fraction == 0 || lowerRank == n - 1) {
+			return lowerValue;
+		}
+		
+		// Everything above lowerRank is now >= lowerValue, so the next order statistic is the smallest of those
+		double upperValue = mScratch[lowerRank + 1];
+		
+		for (int i = lowerRank + 2; i < n; ++i) {
+			if (mScratch[i] < upperValue) {
+				upperValue = mScratch[i];
+			}
+		}
+		
+		return lowerValue + fraction * (upperValue - lowerValue);
+	}
+	
+	/**
+	 * Rearranges values[first..last] so that values[k] holds the value it would have if the range were sorted, everything before it is
+	 * no greater and everything after it no smaller. Quickselect with median-of-three pivots, falling back to a sort of the remaining
+	 * range if the partitioning degenerates, so the worst case is O(n log n) and the expected case O(n).
+	 * @param values The values
+	 * @param first The first index of the range (inclusive)
+	 * @param last The last index of the range (inclusive)
+	 * @param k The index to select
+	 */
+	static void select(double[] values, int first, int last, int k) {
+		int depthLimit = 2 * (32 - Integer.numberOfLeadingZeros(last - first + 1));
+		
+		while (last > first) {
+			if (depthLimit-- == 0) {
+				Arrays.sort(values, first, last + 1);
+				return;
+			}
+			
+			int middle = (first + last) >>> 1;
+			
+			// Median-of-three, which also leaves sentinels at each end of the range
+			if (values[middle] < values[first]) {
+				swap(values, middle, first);
+			}
+			
+			if (values[last] < values[first]) {
+				swap(values, last, first);
+			}
+			
+			if (values[last] < values[middle]) {
+				swap(values, last, middle);
+			}
+			
+			double pivot = values[middle];
+			int i = first;
+			int j = last;
+			
+			// Hoare partition; runs of values equal to the pivot are split evenly, which copes with heavily quantised data
+			while (i <= j) {
+				while (values[i] < pivot) {
+					++i;
+				}
+				
+				while (values[j] > pivot) {
+					--j;
+				}
+				
+				if (i <= j) {
+					swap(values, i++, j--);
+				}
+			}
+			
+			// Now values[first..j] <= pivot, values[i..last] >= pivot and anything in between equals the pivot
+			if (k <= j) {
+				last = j;
+			} else if (k >= i) {
+				first = i;
+			} else {
+				return;
+			}
+		}
+	}
+	
+	private static void swap(double[] values, int i, int j) {
+		double temp = values[i];
+		values[i] = values[j];
+		values[j] = temp;
+	}
+}
@@ -0,0 +1,270 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The mean velocities, Reynolds stress tensor, turbulence intensities and turbulent kinetic energy of a three-component velocity
+ * record, all calculated in a single pass using the Welford updates for the means and co-moments. Long records are processed in
+ * parallel, each fork-join task accumulating its own part, and the parts are combined with the pairwise formulas of Chan et al.
+ * 
+ * Samples at which any component is invalid (NaN) are ignored. Stresses are kinematic (i.e. per unit density, u_i'u_j' rather than
+ * -rho u_i'u_j') population values, consistent with MAJFCMaths.covariance.
+ * @author mikefedora
+ *
+ */
+public class MAJFCReynoldsStresses {
+	public static final int U_COMPONENT = 0;
+	public static final int V_COMPONENT = 1;
+	public static final int W_COMPONENT = 2;
+	public static final int NUMBER_OF_COMPONENTS = 3;
+	
+	private static final int UU_INDEX = 0;
+	private static final int VV_INDEX = 1;
+	private static final int WW_INDEX = 2;
+	private static final int UV_INDEX = 3;
+	private static final int UW_INDEX = 4;
+	private static final int VW_INDEX = 5;
+	private static final int[][] CO_MOMENT_INDICES = { { UU_INDEX, UV_INDEX, UW_INDEX }, { UV_INDEX, VV_INDEX, VW_INDEX }, { UW_INDEX, VW_INDEX, WW_INDEX } };
+	
+	private long mValidCount;
+	private double mMeanU;
+	private double mMeanV;
+	private double mMeanW;
+	private final double[] mCoMoments = new double[6];
+
+	private MAJFCReynoldsStresses() {
+	}
+	
+	/**
+	 * Calculates the turbulence statistics of a velocity record
+	 * @param u The streamwise velocities
+	 * @param v The transverse velocities
+	 * @param w The vertical velocities
+	 * @return The turbulence statistics
+	 */
+	public static MAJFCReynoldsStresses calculate(double[] u, double[] v, double[] w) {
+		return calculate(u, v, w, 0, Math.min(u.length, Math.min(v.length, w.length)));
+	}
+	
+	/**
+	 * Calculates the turbulence statistics of a range of a velocity record
+	 * @param u The streamwise velocities
+	 * @param v The transverse velocities
+	 * @param w The vertical velocities
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @return The turbulence statistics
+	 */
+	public static MAJFCReynoldsStresses calculate(double[] u, double[] v, double[] w, int offset, int length) {
+		AccumulateTask task = new AccumulateTask(u, v, w, offset, length);
+		
+		if (length < MAJFCParallelMaths.PARALLEL_THRESHOLD) {
+			return task.computeLeaf();
+		}
+		
+		return ForkJoinPool.commonPool().invoke(task);
+	}
+	
+	/**
+	 * Calculates the turbulence statistics of a velocity record
+	 * @param velocities The velocities
+	 * @return The turbulence statistics
+	 */
+	public static MAJFCReynoldsStresses calculate(MAJFCSorted3DList velocities) {
+		MAJFCReynoldsStresses stresses = new MAJFCReynoldsStresses();
+		int numberOfVelocities = velocities.size();
+		
+		for (int i = 0; i < numberOfVelocities; ++i) {
+			stresses.add(velocities.getU(i), velocities.getV(i), velocities.getW(i));
+		}
+		
+		return stresses;
+	}
+	
+	/**
+	 * @return The number of samples at which all components are valid
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+	
+	/**
+	 * @param component The component (U_COMPONENT, V_COMPONENT or W_COMPONENT)
+	 * @return The mean velocity of the component, or NaN if there are no valid samples
+	 */
+	public double getMean(int component) {
+		if (mValidCount == 0) {
+			return Double.NaN;
+		}
+		
+		return component == U_COMPONENT ? mMeanU : (component == V_COMPONENT ? mMeanV : mMeanW);
+	}
+	
+	/**
+	 * @return The mean velocities, indexed by component
+	 */
+	public double[] getMeanVelocities() {
+		return new double[] { getMean(U_COMPONENT), getMean(V_COMPONENT), getMean(W_COMPONENT) };
+	}
+	
+	/**
+	 * @param component1 The first component
+	 * @param component2 The second component
+	 * @return The (kinematic) Reynolds stress u_1'u_2' for the two components
+	 */
+	public double getReynoldsStress(int component1, int component2) {
+		return mCoMoments[CO_MOMENT_INDICES[component1][component2]]/mValidCount;
+	}
+	
+	/**
+	 * @return The (kinematic) Reynolds stress tensor, indexed [component][component]
+	 */
+	public double[][] getReynoldsStressTensor() {
+		double[][] tensor = new double[NUMBER_OF_COMPONENTS][NUMBER_OF_COMPONENTS];
+		
+		for (int component1 = 0; component1 < NUMBER_OF_COMPONENTS; ++component1) {
+			for (int component2 = 0; component2 < NUMBER_OF_COMPONENTS; ++component2) {
+				tensor[component1][component2] = getReynoldsStress(component1, component2);
+			}
+		}
+		
+		return tensor;
+	}
+	
+	/**
+	 * @param component The component (U_COMPONENT, V_COMPONENT or W_COMPONENT)
+	 * @return The standard deviation (RMS fluctuation) of the component
+	 */
+	public double getStandardDeviation(int component) {
+		return Math.sqrt(getReynoldsStress(component, component));
+	}
+	
+	/**
+	 * @param component The component (U_COMPONENT, V_COMPONENT or W_COMPONENT)
+	 * @return The turbulence intensity of the component, i.e. its standard deviation divided by the magnitude of the mean velocity
+	 */
+	public double getTurbulenceIntensity(int component) {
+		return getStandardDeviation(component)/Math.sqrt(mMeanU * mMeanU + mMeanV * mMeanV + mMeanW * mMeanW);
+	}
+	
+	/**
+	 * @return The (kinematic) turbulent kinetic energy, (u'u' + v'v' + w'w')/2
+	 */
+	public double getTurbulentKineticEnergy() {
+		return 0.5 * (mCoMoments[UU_INDEX] + mCoMoments[VV_INDEX] + mCoMoments[WW_INDEX])/mValidCount;
+	}
+	
+	private void add(double u, double v, double w) {
+		if (u != u || v != v || w != w) {
+			return;
+		}
+		
+		double n = ++mValidCount;
+		double deltaU = u - mMeanU;
+		double deltaV = v - mMeanV;
+		double deltaW = w - mMeanW;
+		
+		mMeanU += deltaU/n;
+		mMeanV += deltaV/n;
+		mMeanW += deltaW/n;
+		
+		// The fluctuations from the old means times those from the new means
+		double newDeltaU = u - mMeanU;
+		double newDeltaV = v - mMeanV;
+		double newDeltaW = w - mMeanW;
+		double[] coMoments = mCoMoments;
+		
+		coMoments[UU_INDEX] += deltaU * newDeltaU;
+		coMoments[VV_INDEX] += deltaV * newDeltaV;
+		coMoments[WW_INDEX] += deltaW * newDeltaW;
+		coMoments[UV_INDEX] += deltaU * newDeltaV;
+		coMoments[UW_INDEX] += deltaU * newDeltaW;
+		coMoments[VW_INDEX] += deltaV * newDeltaW;
+	}
+	
+	private void merge(MAJFCReynoldsStresses other) {
+		long nA = mValidCount;
+		long nB = other.mValidCount;
+		
+		if (nB == 0) {
+			return;
+		}
+		
+		double n = nA + nB;
+		double deltaU = other.mMeanU - mMeanU;
+		double deltaV = other.mMeanV - mMeanV;
+		double deltaW = other.mMeanW - mMeanW;
+		double weight = nA * (double) nB/n;
+		double[] coMoments = mCoMoments;
+		double[] otherCoMoments = other.mCoMoments;
+		
+		coMoments[UU_INDEX] += otherCoMoments[UU_INDEX] + deltaU * deltaU * weight;
+		coMoments[VV_INDEX] += otherCoMoments[VV_INDEX] + deltaV * deltaV * weight;
+		coMoments[WW_INDEX] += otherCoMoments[WW_INDEX] + deltaW * deltaW * weight;
+		coMoments[UV_INDEX] += otherCoMoments[UV_INDEX] + deltaU * deltaV * weight;
+		coMoments[UW_INDEX] += otherCoMoments[UW_INDEX] + deltaU * deltaW * weight;
+		coMoments[VW_INDEX] += otherCoMoments[VW_INDEX] + deltaV * deltaW * weight;
+		
+		mMeanU += deltaU * nB/n;
+		mMeanV += deltaV * nB/n;
+		mMeanW += deltaW * nB/n;
+		mValidCount = nA + nB;
+	}
+	
+	/**
+	 * Accumulates the statistics of part of a record
+	 */
+	@SuppressWarnings("serial")
+	private static class AccumulateTask extends MAJFCParallelMaths.RangeTask<MAJFCReynoldsStresses> {
+		private final double[] mU;
+		private final double[] mV;
+		private final double[] mW;
+		
+		private AccumulateTask(double[] u, double[] v, double[] w, int offset, int length) {
+			super(offset, length);
+			mU = u;
+			mV = v;
+			mW = w;
+		}
+
+		@Override
+		protected MAJFCParallelMaths.RangeTask<MAJFCReynoldsStresses> makeSubtask(int offset, int length) {
+			return new AccumulateTask(mU, mV, mW, offset, length);
+		}
+
+		@Override
+		protected MAJFCReynoldsStresses computeLeaf() {
+			MAJFCReynoldsStresses stresses = new MAJFCReynoldsStresses();
+			int end = mOffset + mLength;
+			
+			for (int i = mOffset; i < end; ++i) {
+				stresses.add(mU[i], mV[i], mW[i]);
+			}
+			
+			return stresses;
+		}
+
+		@Override
+		protected MAJFCReynoldsStresses combine(MAJFCReynoldsStresses first, MAJFCReynoldsStresses second) {
+			first.merge(second);
+			
+			return first;
+		}
+	}
+}
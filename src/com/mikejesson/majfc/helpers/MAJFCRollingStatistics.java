@@ -0,0 +1,280 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * Moving-window statistics over primitive series, calculated in a single linear pass. As the window slides each new value is added to,
+ * and each departing value removed from, running Welford sums, so the cost per window position does not depend on the window length.
+ * Invalid (NaN) values are skipped; a window with no valid values gives NaN.
+ * 
+ * Element k of each output series is the statistic for the window starting at data[offset + k], so there are
+ * (length - windowLength + 1) outputs.
+ * @author mikefedora
+ *
+ */
+public class MAJFCRollingStatistics {
+	/**
+	 * The running sums are recalculated from scratch after the window has slid through this many window lengths, so that rounding
+	 * errors from the removals cannot build up over very long series
+	 */
+	private static final int RESYNCHRONISATION_INTERVAL_IN_WINDOWS = 32;
+	
+	private static final int STATISTIC_MEAN = 0;
+	private static final int STATISTIC_STANDARD_DEVIATION = 1;
+	private static final int STATISTIC_RMS = 2;
+
+	/**
+	 * Calculates the moving mean of a series
+	 * @param data The series
+	 * @param windowLength The number of values in each window
+	 * @return The moving mean, or null if the series is shorter than the window
+	 */
+	public static double[] rollingMean(double[] data, int windowLength) {
+		return rollingMean(data, 0, data.length, windowLength, null);
+	}
+	
+	/**
+	 * Calculates the moving mean of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param windowLength The number of values in each window
+	 * @param output The array to write the results into (must hold at least length - windowLength + 1 values), or null to allocate one
+	 * @return The moving mean, or null if the range is shorter than the window
+	 */
+	public static double[] rollingMean(double[] data, int offset, int length, int windowLength, double[] output) {
+		return roll(data, offset, length, windowLength, output, STATISTIC_MEAN);
+	}
+	
+	/**
+	 * Calculates the moving standard deviation of a series
+	 * @param data The series
+	 * @param windowLength The number of values in each window
+	 * @return The moving standard deviation, or null if the series is shorter than the window
+	 */
+	public static double[] rollingStandardDeviation(double[] data, int windowLength) {
+		return rollingStandardDeviation(data, 0, data.length, windowLength, null);
+	}
+	
+	/**
+	 * Calculates the moving (population) standard deviation of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param windowLength The number of values in each window
+	 * @param output The array to write the results into (must hold at least length - windowLength + 1 values), or null to allocate one
+	 * @return The moving standard deviation, or null if the range is shorter than the window
+	 */
+	public static double[] rollingStandardDeviation(double[] data, int offset, int length, int windowLength, double[] output) {
+		return roll(data, offset, length, windowLength, output, STATISTIC_STANDARD_DEVIATION);
+	}
+	
+	/**
+	 * Calculates the moving RMS of a series
+	 * @param data The series
+	 * @param windowLength The number of values in each window
+	 * @return The moving RMS, or null if the series is shorter than the window
+	 */
+	public static double[] rollingRMS(double[] data, int windowLength) {
+		return rollingRMS(data, 0, data.length, windowLength, null);
+	}
+	
+	/**
+	 * Calculates the moving RMS of a range of a series
+	 * @param data The series
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @param windowLength The number of values in each window
+	 * @param output The array to write the results into (must hold at least length - windowLength + 1 values), or null to allocate one
+	 * @return The moving RMS, or null if the range is shorter than the window
+	 */
+	public static double[] rollingRMS(double[] data, int offset, int length, int windowLength, double[] output) {
+		return roll(data, offset, length, windowLength, output, STATISTIC_RMS);
+	}
+	
+	/**
+	 * Calculates the moving covariance between two series. Sample pairs for which either value is invalid (NaN) are skipped.
+	 * @param dataSet1 The first series
+	 * @param dataSet2 The second series
+	 * @param windowLength The number of sample pairs in each window
+	 * @return The moving covariance, or null if the series are shorter than the window
+	 */
+	public static double[] rollingCovariance(double[] dataSet1, double[] dataSet2, int windowLength) {
+		return rollingCovariance(dataSet1, dataSet2, 0, Math.min(dataSet1.length, dataSet2.length), windowLength, null);
+	}
+
+	/**
+	 * Calculates the moving (population) covariance between ranges of two series. Sample pairs for which either value is invalid (NaN)
+	 * are skipped.
+	 * @param dataSet1 The first series
+	 * @param dataSet2 The second series
+	 * @param offset The index of the first value to use (in both series)
+	 * @param length The number of values to use
+	 * @param windowLength The number of sample pairs in each window
+	 * @param output The array to write the results into (must hold at least length - windowLength + 1 values), or null to allocate one
+	 * @return The moving covariance, or null if the range is shorter than the window
+	 */
+	public static double[] rollingCovariance(double[] dataSet1, double[] dataSet2, int offset, int length, int windowLength, double[] output) {
+		int numberOfWindows = length - windowLength + 1;
+		
+		if (windowLength < 1 || numberOfWindows < 1) {
+			return null;
+		}
+		
+		if (output == null) {
+			output = new double[numberOfWindows];
+		}
+
+		int resynchronisationInterval = RESYNCHRONISATION_INTERVAL_IN_WINDOWS * windowLength;
+		int n = 0;
+		double mean1 = 0, mean2 = 0, coMoment = 0;
+		
+		for (int window = 0; window < numberOfWindows; ++window) {
+			int windowStart = offset + window;
+			
+			if (window % resynchronisationInterval == 0) {
+				// (Re)calculate the sums for this window from scratch
+				n = 0;
+				mean1 = mean2 = coMoment = 0;
+				
+				for (int i = windowStart; i < windowStart + windowLength; ++i) {
+					double x = dataSet1[i], y = dataSet2[i];
+					
+					if (x != x || y != y) {
+						continue;
+					}
+					
+					++n;
+					double deltaX = x - mean1;
+					mean1 += deltaX/n;
+					mean2 += (y - mean2)/n;
+					coMoment += deltaX * (y - mean2);
+				}
+			} else {
+				// Remove the value which has left the window...
+				double x = dataSet1[windowStart - 1], y = dataSet2[windowStart - 1];
+				
+				if (x == x && y == y) {
+					if (--n == 0) {
+						mean1 = mean2 = coMoment = 0;
+					} else {
+						double deltaX = x - mean1;
+						mean1 -= deltaX/n;
+						mean2 -= (y - mean2)/n;
+						coMoment -= deltaX * (y - mean2);
+					}
+				}
+				
+				// ...and add the one which has entered it
+				x = dataSet1[windowStart + windowLength - 1];
+				y = dataSet2[windowStart + windowLength - 1];
+				
+				if (x == x && y == y) {
+					++n;
+					double deltaX = x - mean1;
+					mean1 += deltaX/n;
+					mean2 += (y - mean2)/n;
+					coMoment += deltaX * (y - mean2);
+				}
+			}
+			
+			output[window] = n == 0 ? Double.NaN : coMoment/n;
+		}
+		
+		return output;
+	}
+	
+	private static double[] roll(double[] data, int offset, int length, int windowLength, double[] output, int statistic) {
+		int numberOfWindows = length - windowLength + 1;
+		
+		if (windowLength < 1 || numberOfWindows < 1) {
+			return null;
+		}
+		
+		if (output == null) {
+			output = new double[numberOfWindows];
+		}
+
+		int resynchronisationInterval = RESYNCHRONISATION_INTERVAL_IN_WINDOWS * windowLength;
+		int n = 0;
+		double mean = 0, m2 = 0;
+		
+		for (int window = 0; window < numberOfWindows; ++window) {
+			int windowStart = offset + window;
+			
+			if (window % resynchronisationInterval == 0) {
+				// (Re)calculate the sums for this window from scratch
+				n = 0;
+				mean = m2 = 0;
+				
+				for (int i = windowStart; i < windowStart + windowLength; ++i) {
+					double value = data[i];
+					
+					if (value != value) {
+						continue;
+					}
+					
+					++n;
+					double delta = value - mean;
+					mean += delta/n;
+					m2 += delta * (value - mean);
+				}
+			} else {
+				// Remove the value which has left the window...
+				double value = data[windowStart - 1];
+				
+				if (value == value) {
+					if (--n == 0) {
+						mean = m2 = 0;
+					} else {
+						double delta = value - mean;
+						mean -= delta/n;
+						m2 -= delta * (value - mean);
+					}
+				}
+				
+				// ...and add the one which has entered it
+				value = data[windowStart + windowLength - 1];
+				
+				if (value == value) {
+					++n;
+					double delta = value - mean;
+					mean += delta/n;
+					m2 += delta * (value - mean);
+				}
+			}
+			
+			if (n == 0) {
+				output[window] = Double.NaN;
+				continue;
+			}
+			
+			// Rounding can leave m2 fractionally negative for a window of near-constant values
+			double variance = Math.max(m2, 0)/n;
+			
+			if (statistic == STATISTIC_MEAN) {
+				output[window] = mean;
+			} else if (statistic == STATISTIC_STANDARD_DEVIATION) {
+				output[window] = Math.sqrt(variance);
+			} else {
+				output[window] = Math.sqrt(mean * mean + variance);
+			}
+		}
+		
+		return output;
+	}
+}
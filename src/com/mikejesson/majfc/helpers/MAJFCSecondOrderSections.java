@@ -0,0 +1,465 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A digital IIR filter held as a cascade of second order sections (biquads), which, unlike a single high order polynomial, stays
+ * numerically stable at high orders and low cutoff frequencies. Butterworth (maximally flat) and Chebyshev type I (equiripple pass
+ * band, steeper roll-off) low, high and band pass filters are designed from the analogue prototypes' poles by the bilinear transform,
+ * with the cutoff frequencies prewarped so they are exact. The most recently used designs are cached, so asking for the same filter again costs nothing.
+ * 
+ * Filters can be applied causally (with phase lag, as the MAJFCMaths first order filters) or forwards and backwards for zero phase
+ * shift, which doubles the attenuation in dB and leaves peaks and edges where they were.
+ * @author mikefedora
+ *
+ */
+public class MAJFCSecondOrderSections {
+	private static int NUMBER_OF_FILTER_TYPES = 0;
+	public static final MAJFCFilterType FILTER_TYPE_LOW_PASS = new MAJFCFilterType(NUMBER_OF_FILTER_TYPES++);
+	public static final MAJFCFilterType FILTER_TYPE_HIGH_PASS = new MAJFCFilterType(NUMBER_OF_FILTER_TYPES++);
+	
+	/**
+	 * The coefficients of each section are held as b0, b1, b2, a1, a2 (a0 being 1)
+	 */
+	static final int COEFFICIENTS_PER_SECTION = 5;
+	static final int B0_OFFSET = 0;
+	static final int B1_OFFSET = 1;
+	static final int B2_OFFSET = 2;
+	static final int A1_OFFSET = 3;
+	static final int A2_OFFSET = 4;
+	
+	/**
+	 * The number of designs kept in the cache. A sweep of cutoff frequencies or time steps only displaces older designs.
+	 */
+	private static final int MAXIMUM_CACHED_DESIGNS = 64;
+	
+	/**
+	 * The design cache, least recently used first. Access must be synchronized on the map.
+	 */
+	@SuppressWarnings("serial")
+	private static final Map<String, MAJFCSecondOrderSections> sDesigns = new LinkedHashMap<String, MAJFCSecondOrderSections>(2 * MAXIMUM_CACHED_DESIGNS, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MAJFCSecondOrderSections> eldest) {
+			return size() > MAXIMUM_CACHED_DESIGNS;
+		}
+	};
+	
+	private final double[] mCoefficients;
+	private final int mNumberOfSections;
+	
+	/**
+	 * The state of each section (z1, z2) after a unit step input has settled, used to start the filter without a transient
+	 */
+	private final double[] mSteadyStateStepStates;
+
+	/**
+	 * Constructor
+	 * @param coefficients The coefficients of each section in turn, as b0, b1, b2, a1, a2 (normalised so that a0 is 1)
+	 */
+	public MAJFCSecondOrderSections(double[] coefficients) {
+		mCoefficients = coefficients.clone();
+		mNumberOfSections = coefficients.length/COEFFICIENTS_PER_SECTION;
+		mSteadyStateStepStates = new double[2 * mNumberOfSections];
+		
+		double sectionInput = 1;
+		
+		for (int section = 0; section < mNumberOfSections; ++section) {
+			int base = section * COEFFICIENTS_PER_SECTION;
+			double b0 = mCoefficients[base + B0_OFFSET], b1 = mCoefficients[base + B1_OFFSET], b2 = mCoefficients[base + B2_OFFSET];
+			double a1 = mCoefficients[base + A1_OFFSET], a2 = mCoefficients[base + A2_OFFSET];
+			double sectionOutput = sectionInput * (b0 + b1 + b2)/(1 + a1 + a2);
+			
+			mSteadyStateStepStates[2 * section] = sectionOutput - b0 * sectionInput;
+			mSteadyStateStepStates[2 * section + 1] = b2 * sectionInput - a2 * sectionOutput;
+			sectionInput = sectionOutput;
+		}
+	}
+	
+	private MAJFCSecondOrderSections(MAJFCSecondOrderSections first, MAJFCSecondOrderSections second) {
+		this(concatenate(first.mCoefficients, second.mCoefficients));
+	}
+	
+	/**
+	 * Designs (or fetches from the cache) a Butterworth low or high pass filter
+	 * @param filterType FILTER_TYPE_LOW_PASS or FILTER_TYPE_HIGH_PASS
+	 * @param order The filter order (the roll-off is 6 * order dB per octave)
+	 * @param cutoffFrequency The frequency at which the response is 3 dB down
+	 * @param timeStep The time between samples
+	 * @return The filter, or null if the cutoff frequency is not between 0 and the Nyquist frequency
+	 */
+	public static MAJFCSecondOrderSections butterworth(MAJFCFilterType filterType, int order, double cutoffFrequency, double timeStep) {
+		return design(filterType, order, 0, cutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * Designs (or fetches from the cache) a Butterworth band pass filter, as a high pass filter followed by a low pass filter
+	 * @param order The order of each of the high and low pass filters
+	 * @param lowerCutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param upperCutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter, or null if either cutoff frequency is not between 0 and the Nyquist frequency
+	 */
+	public static MAJFCSecondOrderSections butterworthBandPass(int order, double lowerCutoffFrequency, double upperCutoffFrequency, double timeStep) {
+		return bandPass(order, 0, lowerCutoffFrequency, upperCutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * Designs (or fetches from the cache) a Chebyshev type I low or high pass filter
+	 * @param filterType FILTER_TYPE_LOW_PASS or FILTER_TYPE_HIGH_PASS
+	 * @param order The filter order
+	 * @param passBandRipple The peak to peak ripple in the pass band, in dB (e.g. 0.5)
+	 * @param cutoffFrequency The frequency at which the response leaves the ripple band
+	 * @param timeStep The time between samples
+	 * @return The filter, or null if the cutoff frequency is not between 0 and the Nyquist frequency or the ripple is not positive
+	 */
+	public static MAJFCSecondOrderSections chebyshev(MAJFCFilterType filterType, int order, double passBandRipple, double cutoffFrequency, double timeStep) {
+		if (!(passBandRipple > 0)) {
+			return null;
+		}
+		
+		return design(filterType, order, passBandRipple, cutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * Designs (or fetches from the cache) a Chebyshev type I band pass filter, as a high pass filter followed by a low pass filter
+	 * @param order The order of each of the high and low pass filters
+	 * @param passBandRipple The peak to peak ripple in the pass band, in dB (e.g. 0.5)
+	 * @param lowerCutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param upperCutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter, or null if either cutoff frequency is not between 0 and the Nyquist frequency or the ripple is not positive
+	 */
+	public static MAJFCSecondOrderSections chebyshevBandPass(int order, double passBandRipple, double lowerCutoffFrequency, double upperCutoffFrequency, double timeStep) {
+		if (!(passBandRipple > 0)) {
+			return null;
+		}
+		
+		return bandPass(order, passBandRipple, lowerCutoffFrequency, upperCutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * @return The number of second order sections
+	 */
+	public int getNumberOfSections() {
+		return mNumberOfSections;
+	}
+	
+	/**
+	 * @return A copy of the coefficients of each section in turn, as b0, b1, b2, a1, a2
+	 */
+	public double[] getCoefficients() {
+		return mCoefficients.clone();
+	}
+	
+	/**
+	 * Calculates the magnitude of the filter's frequency response
+	 * @param frequency The frequency
+	 * @param timeStep The time between samples
+	 * @return The gain at the frequency
+	 */
+	public double getGain(double frequency, double timeStep) {
+		double omega = 2 * Math.PI * frequency * timeStep;
+		double cos1 = Math.cos(omega), sin1 = Math.sin(omega), cos2 = Math.cos(2 * omega), sin2 = Math.sin(2 * omega);
+		double gain = 1;
+		
+		for (int base = 0; base < mCoefficients.length; base += COEFFICIENTS_PER_SECTION) {
+			double numeratorReal = mCoefficients[base + B0_OFFSET] + mCoefficients[base + B1_OFFSET] * cos1 + mCoefficients[base + B2_OFFSET] * cos2;
+			double numeratorImaginary = -mCoefficients[base + B1_OFFSET] * sin1 - mCoefficients[base + B2_OFFSET] * sin2;
+			double denominatorReal = 1 + mCoefficients[base + A1_OFFSET] * cos1 + mCoefficients[base + A2_OFFSET] * cos2;
+			double denominatorImaginary = -mCoefficients[base + A1_OFFSET] * sin1 - mCoefficients[base + A2_OFFSET] * sin2;
+			
+			gain *= Math.sqrt((numeratorReal * numeratorReal + numeratorImaginary * numeratorImaginary)/(denominatorReal * denominatorReal + denominatorImaginary * denominatorImaginary));
+		}
+		
+		return gain;
+	}
+	
+	/**
+	 * Applies the filter causally to a range of a series, starting from the steady state for the first value (so there is no start-up transient)
+	 * @param inputValues The values to filter. These are not changed.
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues
+	 */
+	public double[] filter(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+		if (outputValues == null) {
+			outputValues = new double[outputOffset + length];
+		}
+		
+		if (length < 1) {
+			return outputValues;
+		}
+		
+		double[] states = new double[2 * mNumberOfSections];
+		setSteadyState(states, inputValues[offset]);
+		filter(inputValues, offset, length, 1, outputValues, outputOffset, 1, states);
+		
+		return outputValues;
+	}
+	
+	/**
+	 * Applies the filter forwards and then backwards to a range of a series, so that there is no phase shift. The ends of the series are
+	 * extended by odd reflection and the filter started from its steady state, to limit the transients at the ends.
+	 * @param inputValues The values to filter. These are not changed.
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset) to filter in place,
+	 * or null to allocate one
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 * @return outputValues
+	 */
+	public double[] filterZeroPhase(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+		if (outputValues == null) {
+			outputValues = new double[outputOffset + length];
+		}
+		
+		if (length < 1) {
+			return outputValues;
+		}
+		
+		int padLength = Math.min(3 * (2 * mNumberOfSections + 1), length - 1);
+		int paddedLength = length + 2 * padLength;
+		double[] padded = new double[paddedLength];
+		double firstValue = inputValues[offset];
+		double lastValue = inputValues[offset + length - 1];
+		
+		for (int i = 0; i < padLength; ++i) {
+			padded[i] = 2 * firstValue - inputValues[offset + padLength - i];
+			padded[padLength + length + i] = 2 * lastValue - inputValues[offset + length - 2 - i];
+		}
+		
+		System.arraycopy(inputValues, offset, padded, padLength, length);
+		
+		double[] states = new double[2 * mNumberOfSections];
+		
+		// Forwards...
+		setSteadyState(states, padded[0]);
+		filter(padded, 0, paddedLength, 1, padded, 0, 1, states);
+		
+		// ...then backwards
+		setSteadyState(states, padded[paddedLength - 1]);
+		filter(padded, paddedLength - 1, paddedLength, -1, padded, paddedLength - 1, -1, states);
+		
+		System.arraycopy(padded, padLength, outputValues, outputOffset, length);
+		
+		return outputValues;
+	}
+	
+	/**
+	 * Sets the section states to their steady state for a constant input
+	 * @param states The states (z1, z2 for each section)
+	 * @param inputValue The constant input
+	 */
+	void setSteadyState(double[] states, double inputValue) {
+		for (int i = 0; i < states.length; ++i) {
+			states[i] = mSteadyStateStepStates[i] * inputValue;
+		}
+	}
+	
+	/**
+	 * Runs values through the sections (in transposed direct form II), one value at a time through all the sections
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value to filter
+	 * @param length The number of values to filter
+	 * @param inputStride The step between input values (-1 to run backwards)
+	 * @param outputValues The array to write the filtered values into
+	 * @param outputOffset The index to write the first filtered value to
+	 * @param outputStride The step between output values
+	 * @param states The section states (z1, z2 for each section), which are updated
+	 */
+	void filter(double[] inputValues, int offset, int length, int inputStride, double[] outputValues, int outputOffset, int outputStride, double[] states) {
+		double[] coefficients = mCoefficients;
+		int numberOfSections = mNumberOfSections;
+		
+		for (int i = 0, inputIndex = offset, outputIndex = outputOffset; i < length; ++i, inputIndex += inputStride, outputIndex += outputStride) {
+			double value = inputValues[inputIndex];
+			
+			for (int section = 0, base = 0; section < numberOfSections; ++section, base += COEFFICIENTS_PER_SECTION) {
+				int stateIndex = 2 * section;
+				double output = coefficients[base + B0_OFFSET] * value + states[stateIndex];
+				states[stateIndex] = coefficients[base + B1_OFFSET] * value - coefficients[base + A1_OFFSET] * output + states[stateIndex + 1];
+				states[stateIndex + 1] = coefficients[base + B2_OFFSET] * value - coefficients[base + A2_OFFSET] * output;
+				value = output;
+			}
+			
+			outputValues[outputIndex] = value;
+		}
+	}
+	
+	private static MAJFCSecondOrderSections bandPass(int order, double passBandRipple, double lowerCutoffFrequency, double upperCutoffFrequency, double timeStep) {
+		String key = "band:" + order + ":" + passBandRipple + ":" + lowerCutoffFrequency * timeStep + ":" + upperCutoffFrequency * timeStep;
+		MAJFCSecondOrderSections design = getCachedDesign(key);
+		
+		if (design == null) {
+			MAJFCSecondOrderSections highPass = design(FILTER_TYPE_HIGH_PASS, order, passBandRipple, lowerCutoffFrequency, timeStep);
+			MAJFCSecondOrderSections lowPass = design(FILTER_TYPE_LOW_PASS, order, passBandRipple, upperCutoffFrequency, timeStep);
+			
+			if (highPass == null || lowPass == null) {
+				return null;
+			}
+			
+			design = new MAJFCSecondOrderSections(highPass, lowPass);
+			cacheDesign(key, design);
+		}
+		
+		return design;
+	}
+	
+	private static MAJFCSecondOrderSections getCachedDesign(String key) {
+		synchronized (sDesigns) {
+			return sDesigns.get(key);
+		}
+	}
+	
+	private static void cacheDesign(String key, MAJFCSecondOrderSections design) {
+		synchronized (sDesigns) {
+			sDesigns.put(key, design);
+		}
+	}
+	
+	/**
+	 * @param passBandRipple The Chebyshev pass band ripple, or 0 for a Butterworth filter
+	 */
+	private static MAJFCSecondOrderSections design(MAJFCFilterType filterType, int order, double passBandRipple, double cutoffFrequency, double timeStep) {
+		double normalisedCutoff = cutoffFrequency * timeStep;
+		
+		if (order < 1 || !(normalisedCutoff > 0 && normalisedCutoff < 0.5)) {
+			return null;
+		}
+		
+		String key = filterType + ":" + order + ":" + passBandRipple + ":" + normalisedCutoff;
+		MAJFCSecondOrderSections design = getCachedDesign(key);
+		
+		if (design == null) {
+			design = new MAJFCSecondOrderSections(designCoefficients(filterType.equals(FILTER_TYPE_HIGH_PASS), order, passBandRipple, normalisedCutoff));
+			cacheDesign(key, design);
+		}
+		
+		return design;
+	}
+	
+	/**
+	 * Designs the sections from the poles of the analogue prototype (cutoff 1 rad/s). Each conjugate pair of poles p gives a section
+	 * 1/(s^2 + Bs + C), with B = -2Re(p) and C = |p|^2, and an odd order adds a first order section 1/(s + sigma). The low pass to high
+	 * pass transform is s -> 1/s, and the bilinear transform s -> (1/K)(1 - 1/z)/(1 + 1/z), with K = tan(pi * cutoff/sampling rate).
+	 */
+	private static double[] designCoefficients(boolean highPass, int order, double passBandRipple, double normalisedCutoff) {
+		int numberOfSections = (order + 1)/2;
+		double[] coefficients = new double[numberOfSections * COEFFICIENTS_PER_SECTION];
+		double k = Math.tan(Math.PI * normalisedCutoff);
+		double kSquared = k * k;
+		double sinhMu = 1, coshMu = 1, gain = 1;
+		
+		if (passBandRipple > 0) {
+			double epsilon = Math.sqrt(Math.pow(10, passBandRipple/10) - 1);
+			double mu = asinh(1/epsilon)/order;
+			sinhMu = Math.sinh(mu);
+			coshMu = Math.cosh(mu);
+			
+			// An even order Chebyshev filter has its pass band gain at the bottom of the ripple
+			if (order % 2 == 0) {
+				gain = 1/Math.sqrt(1 + epsilon * epsilon);
+			}
+		}
+		
+		for (int section = 0; section < numberOfSections; ++section) {
+			int base = section * COEFFICIENTS_PER_SECTION;
+			double theta = Math.PI * (2 * section + 1)/(2 * order);
+			double poleReal = -sinhMu * Math.sin(theta);
+			double poleImaginary = coshMu * Math.cos(theta);
+			double b0, b1, b2, a0, a1, a2;
+			
+			if (2 * section + 1 == order) {
+				// The real pole of an odd order filter
+				double sigma = -poleReal;
+				
+				if (highPass) {
+					a0 = k + sigma;
+					a1 = k - sigma;
+					b0 = sigma;
+					b1 = -sigma;
+				} else {
+					a0 = 1 + sigma * k;
+					a1 = sigma * k - 1;
+					b0 = sigma * k;
+					b1 = sigma * k;
+				}
+				
+				a2 = 0;
+				b2 = 0;
+			} else {
+				double b = -2 * poleReal;
+				double c = poleReal * poleReal + poleImaginary * poleImaginary;
+				
+				if (highPass) {
+					a0 = kSquared + b * k + c;
+					a1 = 2 * kSquared - 2 * c;
+					a2 = kSquared - b * k + c;
+					b0 = c;
+					b1 = -2 * c;
+					b2 = c;
+				} else {
+					a0 = 1 + b * k + c * kSquared;
+					a1 = 2 * c * kSquared - 2;
+					a2 = 1 - b * k + c * kSquared;
+					b0 = c * kSquared;
+					b1 = 2 * c * kSquared;
+					b2 = c * kSquared;
+				}
+			}
+			
+			double scale = (section == 0 ? gain : 1)/a0;
+			coefficients[base + B0_OFFSET] = b0 * scale;
+			coefficients[base + B1_OFFSET] = b1 * scale;
+			coefficients[base + B2_OFFSET] = b2 * scale;
+			coefficients[base + A1_OFFSET] = a1/a0;
+			coefficients[base + A2_OFFSET] = a2/a0;
+		}
+		
+		return coefficients;
+	}
+	
+	private static double asinh(double x) {
+		return Math.log(x + Math.sqrt(x * x + 1));
+	}
+	
+	private static double[] concatenate(double[] first, double[] second) {
+		double[] both = new double[first.length + second.length];
+		System.arraycopy(first, 0, both, 0, first.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+		
+		return both;
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	public static class MAJFCFilterType extends MAJFCSafeArray.MAJFCSafeArrayIndex {
+		private MAJFCFilterType(int index) {
+			super(index);
+		}
+	}
+}
@@ -0,0 +1,344 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Non-parametric tests for stationarity (see Bendat J.S. and Piersol A.G. (2010), "Random Data", section 4.5.2). The record is split
+ * into segments, a statistic (e.g. the mean or variance) is calculated for each, and the sequence of segment statistics is tested for
+ * trends (the reverse arrangement test) or for too few or too many runs about its median (the run test).
+ * 
+ * The reverse arrangements are counted as inversions during a merge sort, in O(n log n) rather than O(n^2) and in parallel for long
+ * sequences, so the tests can also be applied to the samples of a full-length record directly. Invalid (NaN) values are ignored.
+ * @author mikefedora
+ *
+ */
+public class MAJFCStationarity {
+	/**
+	 * Ranges of up to this many values are sorted (and their reverse arrangements counted) by insertion
+	 */
+	private static final int INSERTION_SORT_LENGTH = 32;
+	
+	/**
+	 * Calculates the mean of each of a number of equal length segments of a record. Any samples left over at the end are not used.
+	 * @param data The record
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param numberOfSegments The number of segments
+	 * @return The mean of each segment
+	 */
+	public static double[] segmentMeans(double[] data, int offset, int length, int numberOfSegments) {
+		double[] means = new double[numberOfSegments];
+		int segmentLength = length/numberOfSegments;
+		
+		for (int segment = 0; segment < numberOfSegments; ++segment) {
+			means[segment] = MAJFCMaths.mean(data, offset + segment * segmentLength, segmentLength);
+		}
+		
+		return means;
+	}
+	
+	/**
+	 * Calculates the (population) variance of each of a number of equal length segments of a record. Any samples left over at the end are not used.
+	 * @param data The record
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param numberOfSegments The number of segments
+	 * @return The variance of each segment
+	 */
+	public static double[] segmentVariances(double[] data, int offset, int length, int numberOfSegments) {
+		double[] variances = new double[numberOfSegments];
+		int segmentLength = length/numberOfSegments;
+		
+		for (int segment = 0; segment < numberOfSegments; ++segment) {
+			variances[segment] = MAJFCMoments.calculate(data, offset + segment * segmentLength, segmentLength).getVariance();
+		}
+		
+		return variances;
+	}
+	
+	/**
+	 * Carries out the reverse arrangement test for a monotonic trend in a sequence. A reverse arrangement is a pair of values in which the
+	 * earlier value is greater than the later one.
+	 * @param values The sequence (e.g. segment means)
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The test result, whose statistic is the number of reverse arrangements, or null if there are fewer than two valid values
+	 */
+	public static MAJFCStationarityTestResult reverseArrangementTest(double[] values, int offset, int length) {
+		double[] validValues = validValues(values, offset, length);
+		int n = validValues.length;
+		
+		if (n < 2) {
+			return null;
+		}
+		
+		long reverseArrangements;
+		
+		if (n < MAJFCParallelMaths.PARALLEL_THRESHOLD) {
+			reverseArrangements = countReverseArrangements(validValues, new double[n], 0, n);
+		} else {
+			reverseArrangements = ForkJoinPool.commonPool().invoke(new ReverseArrangementsTask(validValues, new double[n], 0, n));
+		}
+		
+		double expectedValue = n * (n - 1.0)/4;
+		double variance = n * (2.0 * n + 5) * (n - 1.0)/72;
+		
+		return new MAJFCStationarityTestResult(reverseArrangements, expectedValue, Math.sqrt(variance));
+	}
+	
+	/**
+	 * Carries out the run test on a sequence. Each value is classed as above or below the median of the sequence (values equal to the
+	 * median are left out), and the number of runs of consecutive values in the same class is compared with that expected of a random
+	 * sequence.
+	 * @param values The sequence (e.g. segment means)
+	 * @param offset The index of the first value to use
+	 * @param length The number of values to use
+	 * @return The test result, whose statistic is the number of runs, or null if there are no values both above and below the median
+	 */
+	public static MAJFCStationarityTestResult runTest(double[] values, int offset, int length) {
+		double median = new MAJFCQuantiles(length).median(values, offset, length);
+		int end = offset + length;
+		long numberAbove = 0, numberBelow = 0, numberOfRuns = 0;
+		int previousClass = 0;
+		
+		for (int i = offset; i < end; ++i) {
+			double value = values[i];
+			int valueClass = value > median ? 1 : (value < median ? -1 : 0);
+			
+			if (valueClass == 0) {
+				// Equal to the median, or NaN
+				continue;
+			}
+			
+			if (valueClass > 0) {
+				++numberAbove;
+			} else {
+				++numberBelow;
+			}
+			
+			if (valueClass != previousClass) {
+				++numberOfRuns;
+				previousClass = valueClass;
+			}
+		}
+		
+		if (numberAbove == 0 || numberBelow == 0) {
+			return null;
+		}
+		
+		double n = numberAbove + numberBelow;
+		double product = 2.0 * numberAbove * numberBelow;
+		double expectedValue = product/n + 1;
+		double variance = product * (product - n)/(n * n * (n - 1));
+		
+		return new MAJFCStationarityTestResult(numberOfRuns, expectedValue, Math.sqrt(variance));
+	}
+	
+	/**
+	 * Calculates the complementary error function, to a fractional accuracy of better than 1.2e-7 (see Press W.H. et al. (1992),
+	 * "Numerical Recipes in C", section 6.2)
+	 * @param x The argument
+	 * @return erfc(x)
+	 */
+	public static double complementaryErrorFunction(double x) {
+		double z = Math.abs(x);
+		double t = 1/(1 + 0.5 * z);
+		double result = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418 + t * (-0.18628806 + t * (0.27886807
+				+ t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+		
+		return x >= 0 ? result : 2 - result;
+	}
+	
+	private static double[] validValues(double[] values, int offset, int length) {
+		double[] validValues = new double[length];
+		int numberOfValidValues = 0;
+		int end = offset + length;
+		
+		for (int i = offset; i < end; ++i) {
+			double value = values[i];
+			
+			if (value == value) {
+				validValues[numberOfValidValues++] = value;
+			}
+		}
+		
+		return numberOfValidValues == length ? validValues : Arrays.copyOf(validValues, numberOfValidValues);
+	}
+	
+	/**
+	 * Counts the reverse arrangements in a range of values by merge sorting it, adding the number of values still waiting in the first
+	 * half whenever a value is taken from the second. Equal values are taken from the first half first, so are not counted.
+	 * @param values The values, which are left sorted
+	 * @param scratch An array at least as long as values
+	 * @param first The index of the first value
+	 * @param end The index after the last value
+	 * @return The number of reverse arrangements
+	 */
+	private static long countReverseArrangements(double[] values, double[] scratch, int first, int end) {
+		if (end - first <= INSERTION_SORT_LENGTH) {
+			long reverseArrangements = 0;
+			
+			for (int i = first + 1; i < end; ++i) {
+				double value = values[i];
+				int j = i;
+				
+				for (; j > first && values[j - 1] > value; --j) {
+					values[j] = values[j - 1];
+				}
+				
+				values[j] = value;
+				reverseArrangements += i - j;
+			}
+			
+			return reverseArrangements;
+		}
+		
+		int middle = (first + end) >>> 1;
+		long reverseArrangements = countReverseArrangements(values, scratch, first, middle) + countReverseArrangements(values, scratch, middle, end);
+		
+		return reverseArrangements + merge(values, scratch, first, middle, end);
+	}
+	
+	/**
+	 * Merges two adjacent sorted ranges of values
+	 * @return The number of reverse arrangements between the ranges
+	 */
+	private static long merge(double[] values, double[] scratch, int first, int middle, int end) {
+		long reverseArrangements = 0;
+		int i = first, j = middle, k = first;
+		
+		System.arraycopy(values, first, scratch, first, end - first);
+		
+		while (i < middle && j < end) {
+			if (scratch[j] < scratch[i]) {
+				values[k++] = scratch[j++];
+				reverseArrangements += middle - i;
+			} else {
+				values[k++] = scratch[i++];
+			}
+		}
+		
+		while (i < middle) {
+			values[k++] = scratch[i++];
+		}
+		
+		while (j < end) {
+			values[k++] = scratch[j++];
+		}
+		
+		return reverseArrangements;
+	}
+	
+	/**
+	 * Counts the reverse arrangements in each half of a range in parallel, then between the halves
+	 */
+	@SuppressWarnings("serial")
+	private static class ReverseArrangementsTask extends RecursiveTask<Long> {
+		private final double[] mValues;
+		private final double[] mScratch;
+		private final int mFirst;
+		private final int mEnd;
+		
+		private ReverseArrangementsTask(double[] values, double[] scratch, int first, int end) {
+			mValues = values;
+			mScratch = scratch;
+			mFirst = first;
+			mEnd = end;
+		}
+		
+		@Override
+		protected Long compute() {
+			if (mEnd - mFirst <= MAJFCParallelMaths.LEAF_LENGTH) {
+				return countReverseArrangements(mValues, mScratch, mFirst, mEnd);
+			}
+			
+			int middle = (mFirst + mEnd) >>> 1;
+			ReverseArrangementsTask firstHalf = new ReverseArrangementsTask(mValues, mScratch, mFirst, middle);
+			ReverseArrangementsTask secondHalf = new ReverseArrangementsTask(mValues, mScratch, middle, mEnd);
+			
+			firstHalf.fork();
+			long reverseArrangements = secondHalf.compute() + firstHalf.join();
+			
+			return reverseArrangements + merge(mValues, mScratch, mFirst, middle, mEnd);
+		}
+	}
+	
+	/**
+	 * The result of a stationarity test. The test statistic is compared with its distribution for a random (stationary) sequence,
+	 * approximated by a normal distribution.
+	 * @author mikefedora
+	 *
+	 */
+	public static class MAJFCStationarityTestResult {
+		private final long mStatistic;
+		private final double mExpectedValue;
+		private final double mStandardDeviation;
+		
+		private MAJFCStationarityTestResult(long statistic, double expectedValue, double standardDeviation) {
+			mStatistic = statistic;
+			mExpectedValue = expectedValue;
+			mStandardDeviation = standardDeviation;
+		}
+		
+		/**
+		 * @return The test statistic (the number of reverse arrangements or runs)
+		 */
+		public long getStatistic() {
+			return mStatistic;
+		}
+		
+		/**
+		 * @return The expected value of the statistic for a stationary sequence
+		 */
+		public double getExpectedValue() {
+			return mExpectedValue;
+		}
+		
+		/**
+		 * @return The standard deviation of the statistic for a stationary sequence
+		 */
+		public double getStandardDeviation() {
+			return mStandardDeviation;
+		}
+		
+		/**
+		 * @return The number of standard deviations the statistic is from its expected value
+		 */
+		public double getZScore() {
+			return (mStatistic - mExpectedValue)/mStandardDeviation;
+		}
+		
+		/**
+		 * @return The two-sided p-value, i.e. the probability of a statistic at least this far from its expected value if the sequence is stationary
+		 */
+		public double getPValue() {
+			return complementaryErrorFunction(Math.abs(getZScore())/Math.sqrt(2));
+		}
+		
+		/**
+		 * @param significanceLevel The significance level, e.g. 0.05
+		 * @return True if the hypothesis of stationarity is accepted at the significance level
+		 */
+		public boolean isStationary(double significanceLevel) {
+			return getPValue() >= significanceLevel;
+		}
+	}
+}
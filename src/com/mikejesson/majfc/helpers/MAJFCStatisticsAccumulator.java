@@ -0,0 +1,215 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * Accumulates the moments of a series which arrives value by value or block by block, without keeping the values.
+ * Accumulators filled from different parts of a series (e.g. on different threads) can be merged exactly, using the pairwise
+ * combination of Chan et al. extended to the third and fourth moments (see Pebay P. (2008), "Formulas for Robust, One-Pass Parallel
+ * Computation of Covariances and Arbitrary-Order Statistical Moments"). Results are consistent with MAJFCMaths.mean, standardDeviation
+ * and skewness for the same values.
+ * 
+ * An accumulator is not thread-safe; give each thread its own and merge them when the threads have finished.
+ * @author mikefedora
+ *
+ */
+public class MAJFCStatisticsAccumulator {
+	private long mCount;
+	private long mValidCount;
+	private double mMean;
+	private double mM2;
+	private double mM3;
+	private double mM4;
+	
+	/**
+	 * Constructor for an empty accumulator
+	 */
+	public MAJFCStatisticsAccumulator() {
+	}
+	
+	/**
+	 * Constructor for an accumulator which starts from previously calculated moments
+	 * @param moments The moments to start from
+	 */
+	public MAJFCStatisticsAccumulator(MAJFCMoments moments) {
+		merge(moments);
+	}
+
+	/**
+	 * Adds a value. Invalid (NaN) values are counted but otherwise ignored.
+	 * @param value The value to add
+	 */
+	public void add(double value) {
+		++mCount;
+		
+		if (value != value) {
+			return;
+		}
+		
+		long n1 = mValidCount++;
+		long n = mValidCount;
+		double delta = value - mMean;
+		double deltaN = delta/n;
+		double deltaN2 = deltaN * deltaN;
+		double term1 = delta * deltaN * n1;
+		
+		mMean += deltaN;
+		mM4 += term1 * deltaN2 * (n * n - 3 * n + 3) + 6 * deltaN2 * mM2 - 4 * deltaN * mM3;
+		mM3 += term1 * deltaN * (n - 2) - 3 * deltaN * mM2;
+		mM2 += term1;
+	}
+	
+	/**
+	 * Counts values which are known to be invalid without adding them
+	 * @param number The number of invalid values
+	 */
+	void addInvalid(long number) {
+		mCount += number;
+	}
+	
+	/**
+	 * Adds a block of values, equivalent to adding the values one at a time
+	 * @param values The values to add from
+	 * @param offset The index of the first value to add
+	 * @param length The number of values to add
+	 */
+	public void addAll(double[] values, int offset, int length) {
+		int end = offset + length;
+		
+		for (int i = offset; i < end; ++i) {
+			add(values[i]);
+		}
+	}
+	
+	/**
+	 * Merges another accumulator into this one. The other accumulator is not changed.
+	 * @param other The accumulator to merge in
+	 */
+	public void merge(MAJFCStatisticsAccumulator other) {
+		merge(other.mCount, other.mValidCount, other.mMean, other.mM2, other.mM3, other.mM4);
+	}
+	
+	/**
+	 * Merges a set of previously calculated moments into this accumulator
+	 * @param moments The moments to merge in
+	 */
+	public void merge(MAJFCMoments moments) {
+		merge(moments.getCount(), moments.getValidCount(), moments.getMean(), moments.getM2(), moments.getM3(), moments.getM4());
+	}
+	
+	private void merge(long countB, long nB, double meanB, double m2B, double m3B, double m4B) {
+		mCount += countB;
+		
+		if (nB == 0) {
+			return;
+		}
+		
+		if (mValidCount == 0) {
+			mValidCount = nB;
+			mMean = meanB;
+			mM2 = m2B;
+			mM3 = m3B;
+			mM4 = m4B;
+			return;
+		}
+		
+		double nA = mValidCount;
+		double n = nA + nB;
+		double delta = meanB - mMean;
+		double delta2 = delta * delta;
+		double nANB = nA * nB;
+		
+		double m4 = mM4 + m4B + delta2 * delta2 * nANB * (nA * nA - nANB + (double) nB * nB)/(n * n * n)
+				+ 6 * delta2 * (nA * nA * m2B + (double) nB * nB * mM2)/(n * n) + 4 * delta * (nA * m3B - nB * mM3)/n;
+		double m3 = mM3 + m3B + delta2 * delta * nANB * (nA - nB)/(n * n) + 3 * delta * (nA * m2B - nB * mM2)/n;
+		double m2 = mM2 + m2B + delta2 * nANB/n;
+		
+		mValidCount += nB;
+		mMean += delta * nB/n;
+		mM2 = m2;
+		mM3 = m3;
+		mM4 = m4;
+	}
+	
+	/**
+	 * Clears the accumulator
+	 */
+	public void reset() {
+		mCount = 0;
+		mValidCount = 0;
+		mMean = 0;
+		mM2 = 0;
+		mM3 = 0;
+		mM4 = 0;
+	}
+	
+	/**
+	 * @return A snapshot of the moments of the values accumulated so far
+	 */
+	public MAJFCMoments getMoments() {
+		return new MAJFCMoments(mCount, mValidCount, mMean, mM2, mM3, mM4);
+	}
+	
+	/**
+	 * @return The total number of values added, including invalid ones
+	 */
+	public long getCount() {
+		return mCount;
+	}
+	
+	/**
+	 * @return The number of valid (non-NaN) values added
+	 */
+	public long getValidCount() {
+		return mValidCount;
+	}
+	
+	/**
+	 * @return The arithmetic mean of the values added so far
+	 */
+	public double getMean() {
+		return mValidCount == 0 ? Double.NaN : mMean;
+	}
+	
+	/**
+	 * @return The (population) variance of the values added so far
+	 */
+	public double getVariance() {
+		return mM2/mValidCount;
+	}
+	
+	/**
+	 * @return The (population) standard deviation of the values added so far
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+	
+	/**
+	 * @return The skewness of the values added so far
+	 */
+	public double getSkewness() {
+		return Math.sqrt((double) mValidCount) * mM3/Math.pow(mM2, 1.5);
+	}
+	
+	/**
+	 * @return The kurtosis of the values added so far
+	 */
+	public double getKurtosis() {
+		return mValidCount * mM4/(mM2 * mM2);
+	}
+}
@@ -0,0 +1,260 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+import java.util.Arrays;
+
+/**
+ * A filter which keeps its state between calls, so that a record too large to hold in memory can be filtered a block at a time, giving
+ * exactly the output of filtering the whole record in one go. The state can be saved and restored (e.g. to re-filter a block, or to
+ * filter several files as one record).
+ * 
+ * Like the MAJFCMaths filters, the recursive filters made here start from the first sample they are given (rather than from zero), so
+ * there is no start-up transient.
+ * @author mikefedora
+ *
+ */
+public abstract class MAJFCStreamingFilter {
+	/**
+	 * The state array holds a flag (0 or 1) saying whether the first sample has been seen, followed by the filter's own state
+	 */
+	private static final int STARTED_INDEX = 0;
+	
+	protected final double[] mState;
+
+	/**
+	 * Constructor
+	 * @param stateLength The number of state values the filter needs, not including the started flag
+	 */
+	protected MAJFCStreamingFilter(int stateLength) {
+		mState = new double[stateLength + 1];
+	}
+	
+	/**
+	 * Makes a streaming equivalent of MAJFCMaths.lowPassFilter
+	 * @param cutoffFrequency The cutoff frequency above which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter
+	 */
+	public static MAJFCStreamingFilter lowPass(double cutoffFrequency, double timeStep) {
+		return new FirstOrderLowPass(cutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * Makes a streaming equivalent of MAJFCMaths.highPassFilter without mean adjustment (the mean of the whole record is not known until
+	 * it has all been read; subtract a known mean from the input first if it matters)
+	 * @param cutoffFrequency The cutoff frequency below which values should be removed (attenuated)
+	 * @param timeStep The time between samples
+	 * @return The filter
+	 */
+	public static MAJFCStreamingFilter highPass(double cutoffFrequency, double timeStep) {
+		return new FirstOrderHighPass(cutoffFrequency, timeStep);
+	}
+	
+	/**
+	 * Makes a streaming (causal) version of a second order sections filter, equivalent to MAJFCSecondOrderSections.filter
+	 * @param sections The filter
+	 * @return The streaming filter
+	 */
+	public static MAJFCStreamingFilter forSections(MAJFCSecondOrderSections sections) {
+		return new Sections(sections);
+	}
+	
+	/**
+	 * Filters the next block of the record in place
+	 * @param values The values to filter
+	 * @param offset The index of the first value
+	 * @param length The number of values
+	 */
+	public void process(double[] values, int offset, int length) {
+		process(values, offset, length, values, offset);
+	}
+	
+	/**
+	 * Filters the next block of the record. The input is not changed, and nothing is allocated.
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value
+	 * @param length The number of values
+	 * @param outputValues The array to write the filtered values into, which may be inputValues (with the same offset)
+	 * @param outputOffset The index in outputValues to write the first filtered value to
+	 */
+	public void process(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+		if (length < 1) {
+			return;
+		}
+		
+		if (mState[STARTED_INDEX] == 0) {
+			start(inputValues, offset, outputValues, outputOffset);
+			mState[STARTED_INDEX] = 1;
+			
+			if (--length == 0) {
+				return;
+			}
+			
+			++offset;
+			++outputOffset;
+		}
+		
+		processStarted(inputValues, offset, length, outputValues, outputOffset);
+	}
+	
+	/**
+	 * Returns the filter to its initial state, ready for a new record
+	 */
+	public void reset() {
+		Arrays.fill(mState, 0);
+	}
+	
+	/**
+	 * @return A copy of the filter's state
+	 */
+	public double[] snapshot() {
+		return mState.clone();
+	}
+	
+	/**
+	 * Restores a state saved by snapshot()
+	 * @param snapshot The saved state, from a filter of the same design
+	 */
+	public void restore(double[] snapshot) {
+		System.arraycopy(snapshot, 0, mState, 0, mState.length);
+	}
+	
+	/**
+	 * Sets the state for a new record and filters its first value
+	 * @param inputValues The values to filter
+	 * @param offset The index of the first value of the record
+	 * @param outputValues The array to write the filtered value into
+	 * @param outputOffset The index in outputValues to write the filtered value to
+	 */
+	protected abstract void start(double[] inputValues, int offset, double[] outputValues, int outputOffset);
+	
+	/**
+	 * Filters a block once the filter has started
+	 */
+	protected abstract void processStarted(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset);
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	private static class FirstOrderLowPass extends MAJFCStreamingFilter {
+		private static final int PREVIOUS_OUTPUT_INDEX = 1;
+		
+		private final double mSmoothingFactor;
+		
+		private FirstOrderLowPass(double cutoffFrequency, double timeStep) {
+			super(1);
+			
+			double rc = 1/(2 * Math.PI * cutoffFrequency);
+			mSmoothingFactor = timeStep/(rc + timeStep);
+		}
+
+		@Override
+		protected void start(double[] inputValues, int offset, double[] outputValues, int outputOffset) {
+			mState[PREVIOUS_OUTPUT_INDEX] = outputValues[outputOffset] = inputValues[offset];
+		}
+
+		@Override
+		protected void processStarted(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+			double smoothingFactor = mSmoothingFactor;
+			double previousOutput = mState[PREVIOUS_OUTPUT_INDEX];
+			
+			for (int i = 0; i < length; ++i) {
+				previousOutput = smoothingFactor * inputValues[offset + i] + (1 - smoothingFactor) * previousOutput;
+				outputValues[outputOffset + i] = previousOutput;
+			}
+			
+			mState[PREVIOUS_OUTPUT_INDEX] = previousOutput;
+		}
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	private static class FirstOrderHighPass extends MAJFCStreamingFilter {
+		private static final int PREVIOUS_INPUT_INDEX = 1;
+		private static final int PREVIOUS_OUTPUT_INDEX = 2;
+		
+		private final double mScaleFactor;
+		
+		private FirstOrderHighPass(double cutoffFrequency, double timeStep) {
+			super(2);
+			
+			double rc = 1/(2 * Math.PI * cutoffFrequency);
+			mScaleFactor = rc/(rc + timeStep);
+		}
+
+		@Override
+		protected void start(double[] inputValues, int offset, double[] outputValues, int outputOffset) {
+			mState[PREVIOUS_INPUT_INDEX] = mState[PREVIOUS_OUTPUT_INDEX] = outputValues[outputOffset] = inputValues[offset];
+		}
+
+		@Override
+		protected void processStarted(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+			double scaleFactor = mScaleFactor;
+			double previousInput = mState[PREVIOUS_INPUT_INDEX];
+			double previousOutput = mState[PREVIOUS_OUTPUT_INDEX];
+			
+			for (int i = 0; i < length; ++i) {
+				double input = inputValues[offset + i];
+				previousOutput = scaleFactor * (previousOutput + input - previousInput);
+				outputValues[outputOffset + i] = previousOutput;
+				previousInput = input;
+			}
+			
+			mState[PREVIOUS_INPUT_INDEX] = previousInput;
+			mState[PREVIOUS_OUTPUT_INDEX] = previousOutput;
+		}
+	}
+	
+	/**
+	 * Inner class
+	 * 
+	 * @author mikefedora
+	 * 
+	 */
+	private static class Sections extends MAJFCStreamingFilter {
+		private final MAJFCSecondOrderSections mSections;
+		private final double[] mSectionStates;
+		
+		private Sections(MAJFCSecondOrderSections sections) {
+			super(2 * sections.getNumberOfSections());
+			mSections = sections;
+			mSectionStates = new double[2 * sections.getNumberOfSections()];
+		}
+
+		@Override
+		protected void start(double[] inputValues, int offset, double[] outputValues, int outputOffset) {
+			mSections.setSteadyState(mSectionStates, inputValues[offset]);
+			mSections.filter(inputValues, offset, 1, 1, outputValues, outputOffset, 1, mSectionStates);
+			System.arraycopy(mSectionStates, 0, mState, 1, mSectionStates.length);
+		}
+
+		@Override
+		protected void processStarted(double[] inputValues, int offset, int length, double[] outputValues, int outputOffset) {
+			System.arraycopy(mState, 1, mSectionStates, 0, mSectionStates.length);
+			mSections.filter(inputValues, offset, length, 1, outputValues, outputOffset, 1, mSectionStates);
+			System.arraycopy(mSectionStates, 0, mState, 1, mSectionStates.length);
+		}
+	}
+}
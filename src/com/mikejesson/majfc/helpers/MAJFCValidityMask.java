@@ -0,0 +1,313 @@
+// This file is part of MAJFC 
+// Copyright (C) 2009 - 2016 Michael Jesson
+// 
+// MAJFC is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License
+// as published by the Free Software Foundation; either version 3
+// of the License, or (at your option) any later version.
+// 
+// MAJFC is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU General Public License for more details.
+// 
+// You should have received a copy of the GNU General Public License
+// along with MAJFC.  If not, see <http://www.gnu.org/licenses/>.
+
+package com.mikejesson.majfc.helpers;
+
+/**
+ * A record of which samples of a series are valid, held as one bit per sample, so it can be carried alongside the series and shared
+ * by the statistics, filters and spectral routines that process it. Bit i refers to element i of the series' array.
+ * 
+ * Runs of valid and invalid samples are found a 64-bit word at a time, so long gaps (or long stretches of good data) cost almost nothing
+ * to skip. The usual way to use a mask is:
+ * 
+ * for (int start = mask.nextValid(offset, end); start < end; start = mask.nextValid(runEnd, end)) {
+ *     int runEnd = mask.nextInvalid(start, end);
+ *     ... process data[start] to data[runEnd - 1] ...
+ * }
+ * @author mikefedora
+ *
+ */
+public class MAJFCValidityMask {
+	private static final int ADDRESS_BITS_PER_WORD = 6;
+	private static final long ALL_BITS = -1L;
+	
+	private final long[] mWords;
+	private final int mLength;
+
+	/**
+	 * Constructor
+	 * @param length The number of samples
+	 * @param allValid If true, all the samples start as valid, otherwise they all start as invalid
+	 */
+	public MAJFCValidityMask(int length, boolean allValid) {
+		mLength = length;
+		mWords = new long[(length + 63) >>> ADDRESS_BITS_PER_WORD];
+		
+		if (allValid) {
+			setRange(0, length, true);
+		}
+	}
+	
+	/**
+	 * Makes a mask in which the samples of a series which are NaN are invalid
+	 * @param data The series
+	 * @return The mask
+	 */
+	public static MAJFCValidityMask fromNaN(double[] data) {
+		int length = data.length;
+		MAJFCValidityMask mask = new MAJFCValidityMask(length, false);
+		long[] words = mask.mWords;
+		
+		for (int i = 0; i < length; ++i) {
+			double value = data[i];
+			
+			if (value == value) {
+				words[i >>> ADDRESS_BITS_PER_WORD] |= 1L << i;
+			}
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * Makes a mask from a quality measure recorded with each sample (e.g. the signal to noise ratio or correlation of an ADV sample).
+	 * Samples whose quality is NaN are invalid.
+	 * @param quality The quality of each sample
+	 * @param minimumQuality The lowest quality for which a sample is valid
+	 * @return The mask
+	 */
+	public static MAJFCValidityMask fromThreshold(double[] quality, double minimumQuality) {
+		int length = quality.length;
+		MAJFCValidityMask mask = new MAJFCValidityMask(length, false);
+		long[] words = mask.mWords;
+		
+		for (int i = 0; i < length; ++i) {
+			if (quality[i] >= minimumQuality) {
+				words[i >>> ADDRESS_BITS_PER_WORD] |= 1L << i;
+			}
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * @return The number of samples the mask covers
+	 */
+	public int getLength() {
+		return mLength;
+	}
+	
+	/**
+	 * @param index The sample index
+	 * @return True if the sample is valid
+	 */
+	public boolean isValid(int index) {
+		return (mWords[index >>> ADDRESS_BITS_PER_WORD] & (1L << index)) != 0;
+	}
+	
+	/**
+	 * Sets the validity of a sample
+	 * @param index The sample index
+	 * @param valid True if the sample is valid
+	 */
+	public void setValid(int index, boolean valid) {
+		if (valid) {
+			mWords[index >>> ADDRESS_BITS_PER_WORD] |= 1L << index;
+		} else {
+			mWords[index >>> ADDRESS_BITS_PER_WORD] &= ~(1L << index);
+		}
+	}
+	
+	/**
+	 * Sets the validity of a range of samples
+	 * @param from The index of the first sample
+	 * @param to The index after the last sample
+	 * @param valid True if the samples are valid
+	 */
+	public void setRange(int from, int to, boolean valid) {
+		if (from >= to) {
+			return;
+		}
+		
+		int firstWord = from >>> ADDRESS_BITS_PER_WORD;
+		int lastWord = (to - 1) >>> ADDRESS_BITS_PER_WORD;
+		long firstWordMask = ALL_BITS << from;
+		long lastWordMask = ALL_BITS >>> -to;
+		
+		for (int word = firstWord; word <= lastWord; ++word) {
+			long bits = ALL_BITS;
+			
+			if (word == firstWord) {
+				bits &= firstWordMask;
+			}
+			
+			if (word == lastWord) {
+				bits &= lastWordMask;
+			}
+			
+			if (valid) {
+				mWords[word] |= bits;
+			} else {
+				mWords[word] &= ~bits;
+			}
+		}
+	}
+	
+	/**
+	 * Marks as invalid any sample which is invalid in another mask (e.g. to combine a NaN mask with a signal to noise ratio mask)
+	 * @param other The other mask, which must cover the same number of samples
+	 * @return This mask
+	 */
+	public MAJFCValidityMask and(MAJFCValidityMask other) {
+		for (int word = 0; word < mWords.length; ++word) {
+			mWords[word] &= other.mWords[word];
+		}
+		
+		return this;
+	}
+	
+	/**
+	 * Counts the valid samples in a range
+	 * @param from The index of the first sample
+	 * @param to The index after the last sample
+	 * @return The number of valid samples
+	 */
+	public int countValid(int from, int to) {
+		if (from >= to) {
+			return 0;
+		}
+		
+		int firstWord = from >>> ADDRESS_BITS_PER_WORD;
+		int lastWord = (to - 1) >>> ADDRESS_BITS_PER_WORD;
+		
+		if (firstWord == lastWord) {
+			return Long.bitCount(mWords[firstWord] & (ALL_BITS << from) & (ALL_BITS >>> -to));
+		}
+		
+		int count = Long.bitCount(mWords[firstWord] & (ALL_BITS << from)) + Long.bitCount(mWords[lastWord] & (ALL_BITS >>> -to));
+		
+		for (int word = firstWord + 1; word < lastWord; ++word) {
+			count += Long.bitCount(mWords[word]);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Finds the next valid sample
+	 * @param from The index to start looking from
+	 * @param to The index to stop looking at
+	 * @return The index of the first valid sample at or after from, or to if there is none before it
+	 */
+	public int nextValid(int from, int to) {
+		return nextSetBit(from, to, 0);
+	}
+	
+	/**
+	 * Finds the next invalid sample, i.e. the end of a run of valid samples
+	 * @param from The index to start looking from
+	 * @param to The index to stop looking at
+	 * @return The index of the first invalid sample at or after from, or to if there is none before it
+	 */
+	public int nextInvalid(int from, int to) {
+		return nextSetBit(from, to, ALL_BITS);
+	}
+	
+	/**
+	 * Fills the invalid samples of a range of a series by linear interpolation between the valid samples either side of each gap (or by
+	 * the nearest valid sample at the ends), so that it can be filtered or transformed
+	 * @param data The series
+	 * @param offset The index of the first sample to use
+	 * @param length The number of samples to use
+	 * @param output The array to write the filled series into from index 0, which may be data if offset is 0, or null to allocate one
+	 * @return The filled series, or null if there are no valid samples in the range
+	 */
+	public double[] interpolateInvalid(double[] data, int offset, int length, double[] output) {
+		int end = offset + length;
+		int firstValid = nextValid(offset, end);
+		
+		if (firstValid == end) {
+			return null;
+		}
+		
+		if (output == null) {
+			output = new double[length];
+		}
+		
+		int runStart = firstValid;
+		
+		for (int i = offset; i < firstValid; ++i) {
+			output[i - offset] = data[firstValid];
+		}
+		
+		while (runStart < end) {
+			int runEnd = nextInvalid(runStart, end);
+			
+			if (output != data || offset != 0) {
+				System.arraycopy(data, runStart, output, runStart - offset, runEnd - runStart);
+			}
+			
+			int nextRunStart = nextValid(runEnd, end);
+			double gapStartValue = data[runEnd - 1];
+			
+			if (nextRunStart == end) {
+				for (int i = runEnd; i < end; ++i) {
+					output[i - offset] = gapStartValue;
+				}
+			} else {
+				double step = (data[nextRunStart] - gapStartValue)/(nextRunStart - runEnd + 1);
+				
+				for (int i = runEnd; i < nextRunStart; ++i) {
+					output[i - offset] = gapStartValue + (i - runEnd + 1) * step;
+				}
+			}
+			
+			runStart = nextRunStart;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Writes 1 for each valid and 0 for each invalid sample of a range
+	 * @param offset The index of the first sample
+	 * @param length The number of samples
+	 * @param output The array to write into from index 0
+	 * @return output
+	 */
+	public double[] toIndicator(int offset, int length, double[] output) {
+		int end = offset + length;
+		
+		for (int i = offset; i < end; ++i) {
+			output[i - offset] = isValid(i) ? 1 : 0;
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * @param flip 0 to find set bits, or all bits set to find clear bits
+	 */
+	private int nextSetBit(int from, int to, long flip) {
+		if (from >= to) {
+			return to;
+		}
+		
+		int word = from >>> ADDRESS_BITS_PER_WORD;
+		int lastWord = (to - 1) >>> ADDRESS_BITS_PER_WORD;
+		long bits = (mWords[word] ^ flip) & (ALL_BITS << from);
+		
+		while (bits == 0) {
+			if (++word > lastWord) {
+				return to;
+			}
+			
+			bits = mWords[word] ^ flip;
+		}
+		
+		return Math.min(to, (word << ADDRESS_BITS_PER_WORD) + Long.numberOfTrailingZeros(bits));
+	}
+}
@@ -6,6 +6,8 @@ package com.mikejesson.majfc.helpers.wavelets;
 //import java.lang.Math.*;  
 
 import java.io.Serializable;
+
+import com.mikejesson.majfc.helpers.MAJFCIntegration;
 @SuppressWarnings("serial")
 public class BussowCWT implements Serializable{  
     /**
@@ -272,18 +274,13 @@ public class BussowCWT implements Serializable{
         return simpson(y,1);  
     }  
     public static double simpson(double[] y , double dx){  
-        // Simpson's Rule: step size equal   
-        double out=0;  
-            for (int i=2;i<y.length; i+=2)  
-                out += y[i-2]/6. + y[i]/6. + 2./3.*y[i-1];  
-        return out*2*dx;  
+        // Simpson's Rule: step size equal. A trailing odd interval is left out.  
+        int len = (y.length % 2 == 1) ? y.length : y.length - 1;  
+        return len < 3 ? 0 : MAJFCIntegration.simpson(y, 0, len, dx);  
     }     
     public static double trapez(double [] y, double[] x){  
         // Trapez step size changes  
-        double out=0;  
-        for (int i=1;i<y.length; i++)  
-            out += (y[i-1] + y[i])*(x[i] - x[i-1])/2.;  
-    return out;       
+        return MAJFCIntegration.trapezoid(y, x, 0, y.length);  
     }  
     public static double[] interp(double[] y, double a, int len){  
         // interpol y on len  